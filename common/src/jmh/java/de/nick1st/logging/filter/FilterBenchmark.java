@@ -0,0 +1,46 @@
+package de.nick1st.logging.filter;
+
+import org.apache.logging.log4j.core.LogEvent;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+
+/**
+ * The whole filter path for one event: acquiring the {@link FilterEvent}, the decision cache, the rule index and the
+ * rules themselves, for rule sets of growing size and shares of events the rules deny.
+ * <p>
+ * Sample mode reports the latency percentiles, the gc profiler the bytes allocated per event ("gc.alloc.rate.norm"),
+ * which should stay 0 for the default backend.
+ */
+@State(Scope.Thread)
+public class FilterBenchmark {
+    private static final int EVENTS = 4096;
+
+    @Param({"1", "10", "100", "1000"})
+    public int ruleCount;
+    @Param({"0", "0.1", "0.5", "1.0"})
+    public double hitRatio;
+    @Param({"METHOD_HANDLE", "LAMBDA"})
+    public Config.RuleBackend backend;
+    @Param({"0", "4096"})
+    public int decisionCacheSize;
+
+    private final Filter filter = new Filter();
+    private LogEvent[] events;
+    private int next;
+
+    @Setup
+    public void setup() {
+        Config config = Workloads.config(ruleCount, backend, decisionCacheSize);
+        filter.setRuleSet(RuleSet.compile(config, RuleSet.EMPTY));
+        List<LogEvent> events = Workloads.events(EVENTS, ruleCount, hitRatio, 42);
+        this.events = events.toArray(new LogEvent[0]);
+    }
+
+    @Benchmark
+    public org.apache.logging.log4j.core.Filter.Result filter() {
+        LogEvent event = events[next];
+        next = (next + 1) & (EVENTS - 1);
+        return filter.filter(event);
+    }
+}
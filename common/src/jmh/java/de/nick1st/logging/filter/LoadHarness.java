@@ -0,0 +1,341 @@
+package de.nick1st.logging.filter;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.core.Appender;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.Logger;
+import org.apache.logging.log4j.core.LoggerContext;
+import org.apache.logging.log4j.core.appender.AbstractAppender;
+import org.apache.logging.log4j.core.appender.AsyncAppender;
+import org.apache.logging.log4j.core.config.AppenderRef;
+import org.apache.logging.log4j.core.config.Configuration;
+import org.apache.logging.log4j.core.config.Property;
+import org.apache.logging.log4j.core.config.builder.api.ConfigurationBuilder;
+import org.apache.logging.log4j.core.config.builder.api.ConfigurationBuilderFactory;
+import org.apache.logging.log4j.core.config.builder.impl.BuiltConfiguration;
+import org.apache.logging.log4j.core.util.SystemNanoClock;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Drives many threads logging through the root logger of a private {@link LoggerContext}, once without and once with
+ * the filter, and compares throughput and tail latency. Unlike the JMH benchmarks this covers log4j itself: logger
+ * level checks, the appender path, an optional {@link AsyncAppender} and contention between the threads.
+ * <pre>
+ * ./gradlew :common:loadHarness --args="--threads 30 --rules 100 --hit-ratio 0.5 --async"
+ * </pre>
+ * Options: {@code --threads} (30), {@code --rules} (100), {@code --hit-ratio} (0.5), {@code --seconds} (10),
+ * {@code --warmup} seconds (5), {@code --backend} (METHOD_HANDLE), {@code --decision-cache} (4096), {@code --install}
+ * ROOT_LOGGER or CONTEXT (ROOT_LOGGER), {@code --async} to put an AsyncAppender in front of the appender.
+ * <p>
+ * Events come from {@link Workloads}. The appender keeps nothing but counts and the delivery latency, so the numbers
+ * show the cost of logging up to the appender. Thread name rules never match, the threads have their own names.
+ */
+public class LoadHarness {
+    private static final int EVENTS_PER_THREAD = 4096;
+
+    private final int threads;
+    private final int rules;
+    private final double hitRatio;
+    private final int seconds;
+    private final int warmup;
+    private final Config.RuleBackend backend;
+    private final int decisionCacheSize;
+    private final Config.InstallMode installMode;
+    private final boolean async;
+
+    private LoadHarness(Map<String, String> options) {
+        threads = Integer.parseInt(options.getOrDefault("threads", "30"));
+        rules = Integer.parseInt(options.getOrDefault("rules", "100"));
+        hitRatio = Double.parseDouble(options.getOrDefault("hit-ratio", "0.5"));
+        seconds = Integer.parseInt(options.getOrDefault("seconds", "10"));
+        warmup = Integer.parseInt(options.getOrDefault("warmup", "5"));
+        backend = Config.RuleBackend.valueOf(options.getOrDefault("backend", "METHOD_HANDLE"));
+        decisionCacheSize = Integer.parseInt(options.getOrDefault("decision-cache", "4096"));
+        installMode = Config.InstallMode.valueOf(options.getOrDefault("install", "ROOT_LOGGER"));
+        async = options.containsKey("async");
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--")) {
+                System.err.println("Unexpected argument " + args[i] + ", see the class documentation for the options");
+                System.exit(2);
+            }
+            String name = args[i].substring(2);
+            boolean flag = i + 1 == args.length || args[i + 1].startsWith("--");
+            options.put(name, flag ? "" : args[++i]);
+        }
+        LoadHarness harness = new LoadHarness(options);
+        // Starting a context sets log4j's static nano clock. The global one, which the filter logs to, must not start
+        // later and reset it
+        LogManager.getRootLogger();
+        System.out.printf(Locale.ROOT, "%d threads, %d rules, hit ratio %.2f, %s, %s%n", harness.threads, harness.rules,
+                harness.hitRatio, harness.installMode, harness.async ? "async appender" : "sync appender");
+        harness.run(false).print("without filter");
+        harness.run(true).print("with filter");
+    }
+
+    private Result run(boolean filtered) throws InterruptedException {
+        MemoryAppender appender = new MemoryAppender();
+        LoggerContext context = context(appender);
+        Result result;
+        try {
+            if (filtered) install(context);
+            Load load = new Load(context);
+            load.run(warmup);
+            appender.reset();
+            result = load.run(seconds);
+        } finally {
+            // Everything still queued in the async appender is delivered before it stops
+            context.stop();
+        }
+        result.delivered = appender.delivered.sum();
+        result.delivery = appender.latency();
+        return result;
+    }
+
+    private LoggerContext context(MemoryAppender appender) {
+        ConfigurationBuilder<BuiltConfiguration> builder = ConfigurationBuilderFactory.newConfigurationBuilder();
+        builder.setConfigurationName("Load Harness");
+        builder.setStatusLevel(Level.WARN);
+        // Minecraft's debug.log gets DEBUG events too, so level rules below INFO have events to deny
+        builder.add(builder.newRootLogger(Level.DEBUG));
+        BuiltConfiguration configuration = builder.build(false);
+        // Events carry their creation time, so the appender can measure the delivery latency
+        configuration.setNanoClock(new SystemNanoClock());
+        appender.start();
+        configuration.addAppender(appender);
+        Appender root = appender;
+        if (async) {
+            root = AsyncAppender.newBuilder()
+                    .setName("Async")
+                    .setAppenderRefs(new AppenderRef[]{AppenderRef.createAppenderRef(appender.getName(), null, null)})
+                    .setConfiguration(configuration)
+                    .setBlocking(true)
+                    .setBufferSize(8192)
+                    .build();
+            root.start();
+            configuration.addAppender(root);
+        }
+        LoggerContext context = new LoggerContext("Load Harness");
+        context.start(configuration);
+        // Starting rebuilds the logger configs from the builder's components
+        configuration.getRootLogger().addAppender(root, null, null);
+        context.updateLoggers();
+        return context;
+    }
+
+    /**
+     * Installs a fresh filter like {@link CommonClass#init()} and its config reload do.
+     */
+    private void install(LoggerContext context) {
+        Config config = Workloads.config(rules, backend, decisionCacheSize);
+        config.installMode = installMode;
+        Filter filter = new Filter();
+        context.getRootLogger().addFilter(filter);
+        filter.setRuleSet(RuleSet.compile(config, filter.getRuleSet()));
+        if (config.installMode == Config.InstallMode.CONTEXT) {
+            context.getConfiguration().addFilter(filter);
+            context.updateLoggers();
+        }
+        LevelPushdown levelPushdown = new LevelPushdown(context);
+        if (config.levelPushdown) {
+            levelPushdown.apply(filter.getRules().getFilters());
+        }
+    }
+
+    private class Load {
+        private final LoggerContext context;
+        private final Call[][] calls = new Call[threads][];
+
+        private Load(LoggerContext context) {
+            this.context = context;
+            for (int thread = 0; thread < threads; thread++) {
+                calls[thread] = Workloads.events(EVENTS_PER_THREAD, rules, hitRatio, thread).stream().map(Call::new).toArray(Call[]::new);
+            }
+        }
+
+        private Result run(int seconds) throws InterruptedException {
+            Result result = new Result(seconds);
+            CountDownLatch start = new CountDownLatch(1);
+            List<Thread> workers = new ArrayList<>();
+            Histogram[] histograms = new Histogram[threads];
+            long[] counts = new long[threads];
+            long[] stop = {Long.MAX_VALUE};
+            for (int thread = 0; thread < threads; thread++) {
+                int index = thread;
+                Histogram histogram = histograms[thread] = new Histogram();
+                Thread worker = new Thread(() -> {
+                    Call[] calls = this.calls[index];
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    long end = stop[0];
+                    long count = 0;
+                    long now = System.nanoTime();
+                    while (now - end < 0) {
+                        Call call = calls[(int) (count & (EVENTS_PER_THREAD - 1))];
+                        call.logger.log(call.level, call.format, call.parameters);
+                        long after = System.nanoTime();
+                        histogram.record(after - now);
+                        now = after;
+                        count++;
+                    }
+                    counts[index] = count;
+                }, "Load Worker " + thread);
+                worker.setDaemon(true);
+                workers.add(worker);
+                worker.start();
+            }
+            // Written before the latch opens, so the workers see it
+            stop[0] = System.nanoTime() + seconds * 1_000_000_000L;
+            start.countDown();
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            for (int thread = 0; thread < threads; thread++) {
+                result.calls += counts[thread];
+                result.latency.add(histograms[thread]);
+            }
+            return result;
+        }
+
+        private class Call {
+            private final Logger logger;
+            private final Level level;
+            private final String format;
+            private final Object[] parameters;
+
+            private Call(LogEvent event) {
+                logger = context.getLogger(event.getLoggerName());
+                level = event.getLevel();
+                format = event.getMessage().getFormat();
+                parameters = event.getMessage().getParameters();
+            }
+        }
+    }
+
+    /**
+     * Counts the events that reach it and how long after their creation they arrived.
+     */
+    private static class MemoryAppender extends AbstractAppender {
+        private final LongAdder delivered = new LongAdder();
+        // One histogram per appending thread, the async appender has a single one
+        private final Queue<Histogram> histograms = new ConcurrentLinkedQueue<>();
+        private volatile ThreadLocal<Histogram> histogram;
+
+        private MemoryAppender() {
+            super("Memory", null, null, true, Property.EMPTY_ARRAY);
+            reset();
+        }
+
+        private void reset() {
+            histograms.clear();
+            histogram = ThreadLocal.withInitial(() -> {
+                Histogram histogram = new Histogram();
+                histograms.add(histogram);
+                return histogram;
+            });
+            delivered.reset();
+        }
+
+        @Override
+        public void append(LogEvent event) {
+            delivered.increment();
+            histogram.get().record(System.nanoTime() - event.getNanoTime());
+        }
+
+        private Histogram latency() {
+            Histogram latency = new Histogram();
+            histograms.forEach(latency::add);
+            return latency;
+        }
+    }
+
+    private static class Result {
+        private final int seconds;
+        private long calls;
+        private long delivered;
+        private final Histogram latency = new Histogram();
+        private Histogram delivery;
+
+        private Result(int seconds) {
+            this.seconds = seconds;
+        }
+
+        private void print(String name) {
+            System.out.printf(Locale.ROOT, "%s: %,.0f calls/s, %,.0f delivered/s (%.1f%% denied)%n", name, calls / (double) seconds,
+                    delivered / (double) seconds, calls == 0 ? 0 : (calls - delivered) * 100.0 / calls);
+            System.out.println("  call latency     " + latency);
+            System.out.println("  delivery latency " + delivery);
+        }
+    }
+
+    /**
+     * A log-linear histogram of nanosecond values, 16 buckets per power of two, so percentiles are exact to about 6%.
+     * Not thread-safe, every thread records into its own.
+     */
+    static class Histogram {
+        private static final int SUB_BUCKETS = 16;
+        private final long[] counts = new long[64 * SUB_BUCKETS];
+        private long count;
+        private long max;
+
+        void record(long nanos) {
+            nanos = Math.max(0, nanos);
+            counts[index(nanos)]++;
+            count++;
+            max = Math.max(max, nanos);
+        }
+
+        void add(Histogram other) {
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] += other.counts[i];
+            }
+            count += other.count;
+            max = Math.max(max, other.max);
+        }
+
+        private static int index(long value) {
+            if (value < SUB_BUCKETS) return (int) value;
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            return (exponent - 3) * SUB_BUCKETS + (int) ((value >>> (exponent - 4)) & (SUB_BUCKETS - 1));
+        }
+
+        // The highest value in the bucket
+        private static long upperBound(int index) {
+            if (index < SUB_BUCKETS) return index;
+            int shift = index / SUB_BUCKETS - 1;
+            return ((long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift) + (1L << shift) - 1;
+        }
+
+        long percentile(double percentile) {
+            long target = Math.max(1, (long) Math.ceil(count * percentile / 100));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= target) return Math.min(upperBound(i), max);
+            }
+            return max;
+        }
+
+        @Override
+        public String toString() {
+            if (count == 0) return "no events";
+            return String.format(Locale.ROOT, "p50 %s, p99 %s, p99.9 %s, p99.99 %s, max %s", micros(percentile(50)),
+                    micros(percentile(99)), micros(percentile(99.9)), micros(percentile(99.99)), micros(max));
+        }
+
+        private static String micros(long nanos) {
+            return String.format(Locale.ROOT, "%.1f us", nanos / 1000.0);
+        }
+    }
+}
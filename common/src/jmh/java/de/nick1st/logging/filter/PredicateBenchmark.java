@@ -0,0 +1,48 @@
+package de.nick1st.logging.filter;
+
+import org.apache.logging.log4j.core.LogEvent;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+
+/**
+ * A single rule of each kind in {@link Workloads}, tested against a matching and a non-matching event. Shows what each
+ * relation costs on its own, without the rule index and the decision cache in front of it.
+ */
+@State(Scope.Thread)
+public class PredicateBenchmark {
+    /**
+     * See {@link Workloads#rule(int)}: 0 CONTAINS, 1 STARTS_WITH, 2 MATCH, 3 STARTS_WITH on the logger name, 4
+     * ENDS_WITH, 5 MATCH_IGNORE_CASE, 6 CONTAINS_IGNORE_CASE, 7 STARTS_WITH_IGNORE_CASE, 8 ENDS_WITH_IGNORE_CASE, 9
+     * REGEX, 10 FIND, 11 and 12 level comparisons, 13 throwable class, 14 parameter classes and values, 15 cause chain
+     * and root cause message, 16 stack frames, 17 typed parameters.
+     */
+    @Param({"0", "1", "2", "3", "4", "5", "6", "7", "8", "9", "10", "11", "12", "13", "14", "15", "16", "17"})
+    public int kind;
+    @Param({"true", "false"})
+    public boolean hit;
+    @Param({"METHOD_HANDLE", "LAMBDA"})
+    public Config.RuleBackend backend;
+
+    private FilterPredicate predicate;
+    private LogEvent event;
+
+    @Setup
+    public void setup() {
+        LiteralMatcher literals = new LiteralMatcher();
+        predicate = new FilterPredicate(Workloads.rule(kind), literals, backend);
+        literals.build();
+        Random random = new Random(42);
+        event = hit ? Workloads.hit(kind, random) : Workloads.miss(kind, random);
+    }
+
+    @Benchmark
+    public boolean test() {
+        FilterEvent filterEvent = FilterEvent.acquire().set(event);
+        try {
+            return predicate.test(filterEvent);
+        } finally {
+            filterEvent.release();
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package de.nick1st.logging.filter;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.message.ParameterizedMessage;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Generates rule sets and matching log events for the benchmarks.
+ * <p>
+ * Rule {@code i} is of kind {@code i % KINDS}, together the kinds cover every {@link Config.StringComparable.Relation},
+ * the level comparisons, the throwable conditions and the parameter conditions. Every rule waits for its own token
+ * ("hit" + i) in the field it checks, so {@link #hit(int, Random)} builds an event only rule {@code i} matches, and
+ * {@link #miss(Random)} one of the same shape no rule matches.
+ */
+public class Workloads {
+    public static final int KINDS = 18;
+    private static final String[] LOGGERS = {"net.minecraft.server.MinecraftServer", "net.minecraft.world.level.chunk", "com.example.mod.Worker", "io.netty.channel.DefaultChannelPipeline"};
+    private static final String[] THREADS = {"Server thread", "Worker-Main-1", "Worker-Main-2", "Netty Server IO #3"};
+
+    public static Config config(int rules, Config.RuleBackend backend, int decisionCacheSize) {
+        Config config = new Config();
+        config.ruleBackend = backend;
+        config.decisionCacheSize = decisionCacheSize;
+        config.levelPushdown = false;
+        config.rules = new ArrayList<>();
+        for (int i = 0; i < rules; i++) {
+            config.rules.add(rule(i));
+        }
+        return config;
+    }
+
+    public static Config.FilterRule rule(int i) {
+        Config.FilterRule rule = new Config.FilterRule();
+        String token = "hit" + i;
+        switch (i % KINDS) {
+            case 0 -> rule.formatMessage.add(string(Config.StringComparable.Relation.CONTAINS, " " + token + " "));
+            case 1 -> rule.formatMessage.add(string(Config.StringComparable.Relation.STARTS_WITH, token + " "));
+            case 2 -> rule.loggerName.add(string(Config.StringComparable.Relation.MATCH, "bench." + token));
+            case 3 -> rule.loggerName.add(string(Config.StringComparable.Relation.STARTS_WITH, "bench." + token + "."));
+            case 4 -> rule.message.add(string(Config.StringComparable.Relation.ENDS_WITH, " " + token));
+            case 5 -> rule.message.add(string(Config.StringComparable.Relation.MATCH_IGNORE_CASE, "event " + token.toUpperCase() + " done"));
+            case 6 -> rule.formatMessage.add(string(Config.StringComparable.Relation.CONTAINS_IGNORE_CASE, " " + token.toUpperCase() + " "));
+            case 7 -> rule.message.add(string(Config.StringComparable.Relation.STARTS_WITH_IGNORE_CASE, token.toUpperCase() + " "));
+            case 8 -> rule.threadName.add(string(Config.StringComparable.Relation.ENDS_WITH_IGNORE_CASE, "-" + token.toUpperCase()));
+            case 9 -> rule.message.add(string(Config.StringComparable.Relation.REGEX, "Took \\d+ms for " + token));
+            case 10 -> rule.message.add(string(Config.StringComparable.Relation.FIND, "\\b" + token + "\\b"));
+            case 11 -> {
+                rule.level.add(level(Config.Comparable.Relation.GREATER_THAN_OR_EQUAL, Config.LogLevel.WARN));
+                rule.level.add(level(Config.Comparable.Relation.NOT_EQUAL, Config.LogLevel.FATAL));
+                rule.formatMessage.add(string(Config.StringComparable.Relation.ENDS_WITH, " " + token));
+            }
+            case 12 -> {
+                rule.level.add(level(Config.Comparable.Relation.LESS_THAN, Config.LogLevel.INFO));
+                Config.StringComparable loggerName = string(Config.StringComparable.Relation.STARTS_WITH, "bench.");
+                loggerName.whitelist.add(string(Config.StringComparable.Relation.CONTAINS, ".keep"));
+                rule.loggerName.add(loggerName);
+                rule.formatMessage.add(string(Config.StringComparable.Relation.CONTAINS, " " + token + " "));
+            }
+            case 13 -> {
+                rule.throwableClass.add(string(Config.StringComparable.Relation.MATCH, "java.util.ConcurrentModificationException"));
+                rule.formatMessage.add(string(Config.StringComparable.Relation.ENDS_WITH, " " + token));
+            }
+            case 14 -> {
+                rule.parameterClasses.add(Map.of(1, string(Config.StringComparable.Relation.MATCH, "java.util.ArrayList")));
+                rule.parameterValues.add(Map.of(0, string(Config.StringComparable.Relation.MATCH, token)));
+            }
+            case 15 -> {
+                rule.causeClass.add(string(Config.StringComparable.Relation.MATCH, "java.lang.IllegalStateException"));
+                rule.rootCauseMessage.add(string(Config.StringComparable.Relation.ENDS_WITH, " " + token));
+            }
+            case 16 -> {
+                rule.throwableClass.add(string(Config.StringComparable.Relation.MATCH, "java.io.IOException"));
+                rule.stackFrame.add(string(Config.StringComparable.Relation.STARTS_WITH, "bench." + token + "."));
+            }
+            default -> {
+                Config.ParameterComparable name = new Config.ParameterComparable();
+                name.classIs = "java.lang.String";
+                name.value.add(string(Config.StringComparable.Relation.MATCH, token));
+                Config.ParameterComparable count = new Config.ParameterComparable();
+                count.instanceOf = "java.lang.Number";
+                count.number.add(number(Config.Comparable.Relation.GREATER_THAN_OR_EQUAL, 100));
+                rule.parameters.add(Map.of(0, count, 1, name));
+            }
+        }
+        return rule;
+    }
+
+    /**
+     * An event that matches rule {@code i}, and no rule before it.
+     */
+    public static LogEvent hit(int i, Random random) {
+        return event(i % KINDS, "hit" + i, random);
+    }
+
+    /**
+     * An event of the same shape as the hits, that no rule matches.
+     */
+    public static LogEvent miss(Random random) {
+        return miss(random.nextInt(KINDS), random);
+    }
+
+    /**
+     * A non-matching event of the same shape as the hits of the rules of this kind.
+     */
+    public static LogEvent miss(int kind, Random random) {
+        return event(kind, "miss", random);
+    }
+
+    private static LogEvent event(int kind, String token, Random random) {
+        String logger = LOGGERS[random.nextInt(LOGGERS.length)];
+        String thread = THREADS[random.nextInt(THREADS.length)];
+        return switch (kind) {
+            case 0 -> event(logger, Level.INFO, thread, "Saving chunk " + token + " at {}", random.nextInt(1000));
+            case 1 -> event(logger, Level.INFO, thread, token + " loaded {} entities", random.nextInt(1000));
+            case 2 -> event("bench." + token, Level.INFO, thread, "Ticking {}", random.nextInt(1000));
+            case 3 -> event("bench." + token + ".child", Level.INFO, thread, "Ticking {}", random.nextInt(1000));
+            case 4 -> event(logger, Level.INFO, thread, "Finished {} {}", random.nextInt(1000), token);
+            case 5 -> event(logger, Level.INFO, thread, "Event {} done", token);
+            case 6 -> event(logger, Level.WARN, thread, "Recipe " + token.toUpperCase() + " has no {}", "result");
+            case 7 -> event(logger, Level.INFO, thread, "{} took {}ms", token, random.nextInt(1000));
+            case 8 -> event(logger, Level.INFO, "Worker-" + token, "Work {} done", random.nextInt(1000));
+            case 9 -> event(logger, Level.WARN, thread, "Took {}ms for {}", random.nextInt(1000), token);
+            case 10 -> event(logger, Level.INFO, thread, "Player {} joined as {}", token, "guest");
+            case 11 -> event(logger, Level.ERROR, thread, "Lost connection " + token);
+            case 12 -> event("bench.worker", Level.DEBUG, thread, "Debug " + token + " {}", random.nextInt(1000));
+            case 13 -> event(logger, Level.ERROR, thread, "Ticking entity in " + token, new ConcurrentModificationException());
+            case 14 -> event(logger, Level.INFO, thread, "Inventory of {}: {}", token, new ArrayList<>(List.of("stone", "dirt", "planks")));
+            case 15 -> event(logger, Level.ERROR, thread, "Couldn't load {}", "chunk",
+                    new RuntimeException("Wrapped", new IllegalStateException("Missing " + token)));
+            case 16 -> event(logger, Level.ERROR, thread, "Couldn't read {}", "file", throwable(new IOException("Broken pipe"), "bench." + token + ".Loader"));
+            default -> event(logger, Level.INFO, thread, "Spawned {} {}", 100 + random.nextInt(1000), token);
+        };
+    }
+
+    // A throwable thrown three frames below the given class
+    private static Throwable throwable(Throwable throwable, String className) {
+        throwable.setStackTrace(new StackTraceElement[]{
+                new StackTraceElement("java.io.FileInputStream", "readBytes", "FileInputStream.java", 276),
+                new StackTraceElement("java.io.FileInputStream", "read", "FileInputStream.java", 255),
+                new StackTraceElement(className, "load", "Loader.java", 42),
+                new StackTraceElement("net.minecraft.server.MinecraftServer", "tickServer", "MinecraftServer.java", 900)
+        });
+        return throwable;
+    }
+
+    /**
+     * {@code count} events, a {@code hitRatio} share of them hits of random rules.
+     */
+    public static List<LogEvent> events(int count, int rules, double hitRatio, long seed) {
+        Random random = new Random(seed);
+        List<LogEvent> events = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            events.add(random.nextDouble() < hitRatio ? hit(random.nextInt(rules), random) : miss(random));
+        }
+        return events;
+    }
+
+    private static LogEvent event(String logger, Level level, String thread, String format, Object... parameters) {
+        return Log4jLogEvent.newBuilder()
+                .setLoggerName(logger)
+                .setLevel(level)
+                .setThreadName(thread)
+                .setMessage(new ParameterizedMessage(format, parameters))
+                .setTimeMillis(System.currentTimeMillis())
+                .build();
+    }
+
+    private static Config.StringComparable string(Config.StringComparable.Relation relation, String value) {
+        Config.StringComparable comparable = new Config.StringComparable();
+        comparable.relation = relation;
+        comparable.value = value;
+        return comparable;
+    }
+
+    private static Config.Comparable<Double> number(Config.Comparable.Relation relation, double value) {
+        Config.Comparable<Double> comparable = new Config.Comparable<>();
+        comparable.relation = relation;
+        comparable.value = value;
+        return comparable;
+    }
+
+    private static Config.Comparable<Config.LogLevel> level(Config.Comparable.Relation relation, Config.LogLevel value) {
+        Config.Comparable<Config.LogLevel> comparable = new Config.Comparable<>();
+        comparable.relation = relation;
+        comparable.value = value;
+        return comparable;
+    }
+}
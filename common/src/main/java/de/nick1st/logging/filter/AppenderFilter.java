@@ -0,0 +1,25 @@
+package de.nick1st.logging.filter;
+
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.filter.AbstractFilter;
+
+/**
+ * Installed on an appender named in the {@link Config.FilterRule#targets} of a rule, denies the events such a rule
+ * matched for this appender. The rules are evaluated once per event, see {@link Filter#deniesTarget}.
+ */
+public class AppenderFilter extends AbstractFilter {
+    public final String appender;
+    private final Filter filter;
+    private final long bit;
+
+    AppenderFilter(Filter filter, String appender, int bit) {
+        this.filter = filter;
+        this.appender = appender;
+        this.bit = 1L << bit;
+    }
+
+    @Override
+    public Result filter(LogEvent event) {
+        return filter.deniesTarget(event, bit) ? Result.DENY : Result.NEUTRAL;
+    }
+}
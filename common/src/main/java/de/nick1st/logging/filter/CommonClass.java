@@ -3,13 +3,21 @@ package de.nick1st.logging.filter;
 import com.google.gson.Gson;
 import de.nick1st.logging.filter.platform.Services;
 import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.core.Appender;
 import org.apache.logging.log4j.core.Logger;
+import org.apache.logging.log4j.core.LoggerContext;
+import org.apache.logging.log4j.core.config.Configuration;
+import org.apache.logging.log4j.core.filter.CompositeFilter;
+import org.apache.logging.log4j.core.filter.Filterable;
 
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
-import java.util.ArrayList;
-import java.util.List;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 // This class is part of the common project meaning it is shared between all supported loaders. Code written here can only
 // import and access the vanilla codebase, libraries used by vanilla, and optionally third party libraries that provide
@@ -17,11 +25,31 @@ import java.util.List;
 // however it will be compatible with all supported mod loaders.
 public class CommonClass {
     private static final File CONFIG_FILE = new File(Services.PLATFORM.getConfigFolder().toFile(), "log_filter.json");
+    private static final File CAPTURE_FILE = new File(CONFIG_FILE.getParentFile(), "log_filter_capture.ndjson");
+    private static final File STATS_FILE = new File(CONFIG_FILE.getParentFile(), "log_filter_stats.json");
+    private static final File SNAPSHOT_FILE = new File(CONFIG_FILE.getParentFile(), "log_filter.snapshot");
     private static final FileWatcher configWatcher = new FileWatcher(CONFIG_FILE, () -> {
         Constants.LOG.info("Reloading log filter config.");
         applyConfig();
     });
     private static final Filter FILTER = new Filter();
+    private static boolean contextWide = false;
+    static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "Log Filter Scheduler");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static ScheduledFuture<?> reorderTask;
+    private static ScheduledFuture<?> statsTask;
+    private static ScheduledFuture<?> firingReportTask;
+    private static ScheduledFuture<?> burstReportTask;
+    private static ScheduledFuture<?> overloadTask;
+    private static LevelPushdown levelPushdown;
+    private static String captureJson;
+    // Appender -> the filter installed on it for targeted rules
+    private static final Map<Filterable, AppenderFilter> appenderFilters = new IdentityHashMap<>();
+    // The config content that was applied last, only touched by the thread applying configs
+    private static String appliedJson;
 
     // The loader specific projects are able to import and use any code from the common project. This allows you to
     // write the majority of your code here and load it from your loader specific projects. This example has some
@@ -29,7 +57,7 @@ public class CommonClass {
     public static void init() {
         Constants.LOG.warn("Log Filter was loaded on {}! Log messages might be removed!", Services.PLATFORM.getPlatformName());
         try {
-            ((Logger) LogManager.getRootLogger()).addFilter(FILTER);
+            install();
             applyConfig();
         } catch (ClassCastException e) {
             Constants.LOG.error("Root logger type unknown, can't add filter!");
@@ -38,19 +66,198 @@ public class CommonClass {
         configWatcher.start();
     }
 
-    private static void applyConfig() {
+    /**
+     * Called on Fabric as soon as the loader reads our mixin config, long before {@link #init()}. Installs the filter with the
+     * rules of the last run, see {@link RuleSnapshot}. {@link #init()} applies the config itself once the loader is up,
+     * which replaces those rules at once.
+     */
+    public static synchronized void earlyInit() {
+        if (isInstalled()) return;
+        try {
+            RuleSet ruleSet = RuleSnapshot.read(SNAPSHOT_FILE.toPath(), Files.readString(CONFIG_FILE.toPath()));
+            if (ruleSet == null) {
+                Constants.LOG.info("No rule snapshot for the current config, filtering starts once it is loaded.");
+                return;
+            }
+            FILTER.setRuleSet(ruleSet);
+            install();
+            Constants.LOG.info("Filtering with {} rules of the snapshot until the config is loaded.", ruleSet.rules.getFilters().size());
+        } catch (NoSuchFileException e) {
+            // Nothing to filter with yet, init() reports the missing config
+        } catch (Exception e) {
+            Constants.LOG.warn("Couldn't load the rule snapshot, filtering starts once the config is loaded.", e);
+        }
+    }
+
+    private static synchronized void install() {
+        if (isInstalled()) return;
+        ((Logger) LogManager.getRootLogger()).addFilter(FILTER);
+    }
+
+    // Looked up instead of remembered: a log4j reconfiguration replaces the root LoggerConfig, and the filter with it
+    private static boolean isInstalled() {
+        org.apache.logging.log4j.core.Filter filter = context().getConfiguration().getRootLogger().getFilter();
+        if (filter == FILTER) return true;
+        if (filter instanceof CompositeFilter composite) {
+            for (org.apache.logging.log4j.core.Filter child : composite.getFiltersArray()) {
+                if (child == FILTER) return true;
+            }
+        }
+        return false;
+    }
+
+    private static synchronized void applyConfig() {
         try {
-            Config config = new Gson().fromJson(new FileReader(CONFIG_FILE), Config.class);
-            FILTER.debugLevel = config.logEvents;
-            List<FilterPredicate> filters = new ArrayList<>();
-            for (Config.FilterRule rule : config.rules) {
-                filters.add(new FilterPredicate(rule));
+            String json = Files.readString(CONFIG_FILE.toPath());
+            // Editors often write a file several times per save, nothing to do if the content is unchanged
+            if (json.equals(appliedJson)) {
+                Constants.LOG.info("Log filter config is unchanged.");
+                return;
             }
-            FILTER.filters = filters;
-        } catch (FileNotFoundException e) {
+            Config config = new Gson().fromJson(json, Config.class);
+            RuleSet previous = FILTER.getRuleSet();
+            RuleSet ruleSet = RuleSet.compile(config, previous);
+            if (previous.decisions.isEnabled() && previous.rules.isStaticOnly()) {
+                Constants.LOG.info("Decision cache hit rate of the previous rules: {}%", String.format(Locale.ROOT, "%.1f", previous.decisions.getHitRate() * 100));
+            }
+            // Counts of rules that are about to be replaced would be lost otherwise
+            FILTER.reportFirings();
+            FILTER.reportBursts();
+            FILTER.setRuleSet(ruleSet);
+            scheduleReorder(config);
+            scheduleFiringReport(config);
+            scheduleOverloadCheck();
+            scheduleMetrics(config);
+            setCapture(config);
+            setContextWide(config.installMode == Config.InstallMode.CONTEXT);
+            setTargets(ruleSet);
+            if (levelPushdown == null) {
+                levelPushdown = new LevelPushdown(context());
+            }
+            if (config.levelPushdown) {
+                levelPushdown.apply(FILTER.getRules().getFilters());
+            } else {
+                levelPushdown.restore();
+            }
+            appliedJson = json;
+            writeSnapshot(json, config, ruleSet);
+        } catch (NoSuchFileException e) {
             Constants.LOG.error("Config File not found, can't add filters!");
         } catch (Exception e) {
             Constants.LOG.error("Error while loading config, won't update!", e);
         }
     }
+
+    private static void writeSnapshot(String json, Config config, RuleSet ruleSet) {
+        try {
+            RuleSnapshot.write(SNAPSHOT_FILE.toPath(), json, config, ruleSet);
+        } catch (Exception e) {
+            Constants.LOG.warn("Couldn't save the rule snapshot, the next start only filters once the config is loaded.", e);
+        }
+    }
+
+    private static void scheduleReorder(Config config) {
+        if (reorderTask != null) {
+            reorderTask.cancel(false);
+            reorderTask = null;
+        }
+        if (config.adaptiveOrdering) {
+            int interval = Math.max(1, config.adaptiveOrderingInterval);
+            reorderTask = SCHEDULER.scheduleAtFixedRate(FILTER::reorder, interval, interval, TimeUnit.SECONDS);
+        }
+    }
+
+    private static void scheduleFiringReport(Config config) {
+        if (firingReportTask != null) {
+            firingReportTask.cancel(false);
+        }
+        int interval = Math.max(1, config.firingReportInterval);
+        firingReportTask = SCHEDULER.scheduleAtFixedRate(FILTER::reportFirings, interval, interval, TimeUnit.SECONDS);
+        if (burstReportTask == null) {
+            burstReportTask = SCHEDULER.scheduleAtFixedRate(FILTER::reportBursts, 1, 1, TimeUnit.SECONDS);
+        }
+    }
+
+    private static void scheduleOverloadCheck() {
+        // Also runs while overload protection is off, so turning it off ends an ongoing storm mode
+        if (overloadTask == null) {
+            overloadTask = SCHEDULER.scheduleAtFixedRate(FILTER::checkOverload, 1, 1, TimeUnit.SECONDS);
+        }
+    }
+
+    private static void setCapture(Config config) {
+        boolean enabled = config.capture.enabled;
+        String json = enabled ? new Gson().toJson(config.capture) : null;
+        // Keep recording into the same file if the capture settings didn't change
+        if (Objects.equals(json, captureJson)) return;
+        captureJson = json;
+        if (!enabled) {
+            FILTER.setRecorder(null);
+            return;
+        }
+        EventRecorder recorder = new EventRecorder(config.capture, CAPTURE_FILE.toPath());
+        recorder.start(FILTER.setRecorder(recorder));
+    }
+
+    private static void scheduleMetrics(Config config) {
+        if (statsTask != null) {
+            statsTask.cancel(false);
+            statsTask = null;
+        }
+        if (!config.metrics) {
+            FILTER.metrics.unregister();
+            return;
+        }
+        FILTER.metrics.register();
+        if (config.metricsInterval > 0) {
+            statsTask = SCHEDULER.scheduleAtFixedRate(() -> FILTER.metrics.write(STATS_FILE.toPath()), config.metricsInterval, config.metricsInterval, TimeUnit.SECONDS);
+        }
+    }
+
+    private static LoggerContext context() {
+        return ((Logger) LogManager.getRootLogger()).getContext();
+    }
+
+    /**
+     * Installs an {@link AppenderFilter} on every appender a rule targets and removes the ones no longer targeted.
+     */
+    private static void setTargets(RuleSet ruleSet) {
+        Set<String> targets = new TreeSet<>();
+        for (RuleSet rules : ruleSet.overload != null ? List.of(ruleSet, ruleSet.overload) : List.of(ruleSet)) {
+            if (rules.targeted != null) targets.addAll(rules.targeted.appenders());
+        }
+        Map<String, Appender> appenders = context().getConfiguration().getAppenders();
+        // After a log4j reconfiguration the appenders are new instances
+        appenderFilters.entrySet().removeIf(entry -> {
+            String name = entry.getValue().appender;
+            if (targets.contains(name) && appenders.get(name) == entry.getKey()) return false;
+            entry.getKey().removeFilter(entry.getValue());
+            return true;
+        });
+        for (String target : targets) {
+            Appender appender = appenders.get(target);
+            if (!(appender instanceof Filterable filterable)) {
+                Constants.LOG.warn(appender == null ? "No appender named {}, rules targeting it are ignored" : "Appender {} doesn't support filters, rules targeting it are ignored", target);
+                continue;
+            }
+            int bit = TargetedRules.bit(target);
+            if (appenderFilters.containsKey(filterable) || bit < 0) continue;
+            AppenderFilter filter = new AppenderFilter(FILTER, target, bit);
+            filterable.addFilter(filter);
+            appenderFilters.put(filterable, filter);
+        }
+    }
+
+    private static void setContextWide(boolean enabled) {
+        if (enabled == contextWide) return;
+        LoggerContext context = context();
+        Configuration configuration = context.getConfiguration();
+        if (enabled) {
+            configuration.addFilter(FILTER);
+        } else {
+            configuration.removeFilter(FILTER);
+        }
+        context.updateLoggers();
+        contextWide = enabled;
+    }
 }
\ No newline at end of file
@@ -5,7 +5,27 @@ import java.util.List;
 import java.util.Map;
 
 public class Config {
-    public LogLevel logEvents = LogLevel.NONE;
+    public InstallMode installMode = InstallMode.ROOT_LOGGER;
+    public RuleBackend ruleBackend = RuleBackend.METHOD_HANDLE;
+    public boolean optimizeRules = true;
+    public boolean adaptiveOrdering = false;
+    public int adaptiveOrderingInterval = 30;
+    public int decisionCacheSize = 4096;
+    /**
+     * Pushes rules that only deny levels of some loggers down into the log4j logger levels, see {@link LevelPushdown}.
+     * Off by default, it changes the log4j configuration every other appender and mod sees as well.
+     */
+    public boolean levelPushdown = false;
+    public boolean metrics = false;
+    public int metricsInterval = 60;
+    public int firingReportInterval = 60;
+    /**
+     * The level of the firing and burst reports. Replaces logEvents, which set this level and also dumped every event
+     * into the log, a config still having it gets the INFO default. Events are recorded by {@link #capture} now.
+     */
+    public LogLevel reportLevel = LogLevel.INFO;
+    public Capture capture = new Capture();
+    public Overload overload = new Overload();
     public List<FilterRule> rules;
 
     /**
@@ -18,11 +38,117 @@ public class Config {
         public List<StringComparable> loggerName = new ArrayList<>();
         public List<StringComparable> threadName = new ArrayList<>();
         public List<StringComparable> throwableClass = new ArrayList<>();
+        /**
+         * Matches if the class of the throwable or of any of its causes matches.
+         */
+        public List<StringComparable> causeClass = new ArrayList<>();
+        /**
+         * The message of the innermost cause, events whose root cause has no message don't match.
+         */
+        public List<StringComparable> rootCauseMessage = new ArrayList<>();
+        /**
+         * Matches if any of the top {@link #stackFrameDepth} stack frames of the throwable matches, frames read as
+         * "class.method", e.g. "net.minecraft.world.level.Level.tick".
+         */
+        public List<StringComparable> stackFrame = new ArrayList<>();
+        public int stackFrameDepth = 5;
         public List<StringComparable> message = new ArrayList<>();
         public List<StringComparable> formatMessage = new ArrayList<>();
         public List<Map<Integer, StringComparable>> parameterClasses = new ArrayList<>();
         public List<Map<Integer, StringComparable>> parameterValues = new ArrayList<>();
+        /**
+         * Typed checks on the parameters, they only render a parameter as a string if a value relation needs it, see
+         * {@link ParameterMatcher}.
+         */
+        public List<Map<Integer, ParameterComparable>> parameters = new ArrayList<>();
         public boolean logRuleFiring = false;
+        /**
+         * Names of the appenders in the log4j configuration this rule denies events for, e.g. "Console". Empty denies
+         * them for every appender.
+         */
+        public List<String> targets = new ArrayList<>();
+        public Action action = Action.DENY;
+        /**
+         * DEDUPLICATE: events allowed per fingerprint and window. RATE_LIMIT: size of the token bucket, it is refilled
+         * with this many tokens per window.
+         */
+        public int limit = 1;
+        public long windowMillis = 1000;
+        /**
+         * Keep one in this many of the events over the limit, 0 denies all of them.
+         */
+        public int sampleRate = 0;
+    }
+
+    /**
+     * Records events into log_filter_capture.ndjson next to the config, see {@link EventRecorder}.
+     */
+    public static class Capture {
+        public boolean enabled = false;
+        public int bufferSize = 16384;
+        /**
+         * Record one in this many events, events matching a trigger are always recorded.
+         */
+        public int sampleRate = 1;
+        /**
+         * If not empty, the buffer is only written once one of these rules matches an event.
+         */
+        public List<FilterRule> triggers = new ArrayList<>();
+        public int postTriggerEvents = 1000;
+        public int flushIntervalMillis = 1000;
+        /**
+         * Captures of earlier runs are appended to, a file that reached this size is moved to
+         * log_filter_capture.ndjson.1 first. 0 for no limit.
+         */
+        public int maxFileSizeMb = 256;
+    }
+
+    /**
+     * Adds emergency rules while the filter sees more events than the server can write, e.g. an error loop of a broken
+     * mod. The rate is measured once a second.
+     */
+    public static class Overload {
+        public boolean enabled = false;
+        /**
+         * Events per second above which the overload rules are added.
+         */
+        public int enterRate = 20000;
+        /**
+         * The overload rules are removed again once the rate stayed below this many events per second for
+         * {@link #exitSeconds}.
+         */
+        public int exitRate = 5000;
+        public int exitSeconds = 10;
+        /**
+         * Tested in addition to the normal rules, by default everything below WARN is denied. A DEDUPLICATE rule with a
+         * sampleRate keeps some of the repeated messages instead.
+         */
+        public List<FilterRule> rules = new ArrayList<>(List.of(belowWarn()));
+
+        private static FilterRule belowWarn() {
+            Comparable<LogLevel> level = new Comparable<>();
+            level.relation = Comparable.Relation.LESS_THAN;
+            level.value = LogLevel.WARN;
+            FilterRule rule = new FilterRule();
+            rule.level.add(level);
+            return rule;
+        }
+    }
+
+    public static enum Action {
+        /**
+         * Deny every matching event.
+         */
+        DENY,
+        /**
+         * Allow the first {@link FilterRule#limit} matching events per window for each logger name and format string
+         * combination, deny the rest.
+         */
+        DEDUPLICATE,
+        /**
+         * Allow matching events as long as the rule's token bucket has tokens left.
+         */
+        RATE_LIMIT
     }
 
     public static class StringComparable {
@@ -39,10 +165,35 @@ public class Config {
             STARTS_WITH_IGNORE_CASE,
             CONTAINS_IGNORE_CASE,
             ENDS_WITH_IGNORE_CASE,
-            REGEX
+            REGEX,
+            FIND
         }
     }
 
+    /**
+     * All set checks are combined by AND. A parameter index the event doesn't have never matches.
+     */
+    public static class ParameterComparable {
+        /**
+         * The parameter is an instance of exactly this class, e.g. "net.minecraft.core.BlockPos".
+         */
+        public String classIs;
+        /**
+         * The parameter is an instance of this class, a subclass or an implementation of this interface. Replayed events
+         * only know their own class, there this behaves like {@link #classIs}.
+         */
+        public String instanceOf;
+        /**
+         * Comparisons on a {@link Number} parameter, other parameters don't match.
+         */
+        public List<Comparable<Double>> number = new ArrayList<>();
+        /**
+         * Matched against the string value of the parameter, cut to {@link #maxLength} chars.
+         */
+        public List<StringComparable> value = new ArrayList<>();
+        public int maxLength = 256;
+    }
+
     public static class Comparable<T> {
         public Relation relation;
         public T value;
@@ -57,6 +208,30 @@ public class Config {
         }
     }
 
+    public static enum InstallMode {
+        /**
+         * Only filter events reaching the root logger config.
+         */
+        ROOT_LOGGER,
+        /**
+         * Additionally install context-wide, so rules that don't need the formatted message, parameter values or
+         * throwable can deny a logger call before log4j creates an event for it.
+         */
+        CONTEXT
+    }
+
+    public static enum RuleBackend {
+        /**
+         * Rules are chains of lambdas.
+         */
+        LAMBDA,
+        /**
+         * Rules are compiled into one method handle each, with their values bound as constants. Falls back to
+         * {@link #LAMBDA} for a rule that fails to compile.
+         */
+        METHOD_HANDLE
+    }
+
     public static enum LogLevel {
         ALL,
         TRACE,
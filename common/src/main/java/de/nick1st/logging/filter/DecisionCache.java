@@ -0,0 +1,150 @@
+package de.nick1st.logging.filter;
+
+import org.apache.logging.log4j.Level;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Caches the decision for events whose outcome only depends on logger name, level, thread name and format string.
+ * Only used when no rule of the active rule set reads anything else, see {@link RuleIndex#isStaticOnly()}.
+ * <p>
+ * Lookups are lock free and allocation free (a per-thread probe key is used). The size is bounded with CLOCK
+ * (second chance) eviction, an LRU approximation that only needs a flag write on a hit: once the cache is full, one
+ * inserting thread sweeps it, clearing the flag of recently used entries and removing the others.
+ */
+public class DecisionCache {
+    private static final ThreadLocal<Key> PROBE = ThreadLocal.withInitial(Key::new);
+
+    private final int maxSize;
+    private final Map<Key, Entry> entries = new ConcurrentHashMap<>();
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public DecisionCache(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public boolean isEnabled() {
+        return maxSize > 0;
+    }
+
+    /**
+     * @return the cached decision, or null if the event isn't cached
+     */
+    public Entry get(FilterEvent event) {
+        Key probe = PROBE.get().set(event);
+        Entry entry = entries.get(probe);
+        probe.clear();
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        entry.referenced = true;
+        hits.increment();
+        return entry;
+    }
+
+    /**
+     * @param rule the rule that matched the event, null if none did
+     */
+    public void put(FilterEvent event, FilterPredicate rule) {
+        entries.put(new Key().set(event), new Entry(rule));
+        if (entries.size() > maxSize && evictionLock.tryLock()) {
+            try {
+                evict();
+            } finally {
+                evictionLock.unlock();
+            }
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public double getHitRate() {
+        long hits = this.hits.sum();
+        long total = hits + misses.sum();
+        return total == 0 ? 0 : hits / (double) total;
+    }
+
+    /**
+     * Resets the hit and miss counts, the cached decisions are kept.
+     */
+    public void resetCounts() {
+        hits.reset();
+        misses.reset();
+    }
+
+    private void evict() {
+        int target = maxSize - maxSize / 10;
+        // Two sweeps at most: the first one may only clear reference flags
+        for (int sweep = 0; sweep < 2 && entries.size() > target; sweep++) {
+            Iterator<Entry> iterator = entries.values().iterator();
+            while (iterator.hasNext() && entries.size() > target) {
+                Entry entry = iterator.next();
+                if (entry.referenced) {
+                    entry.referenced = false;
+                } else {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    public static class Entry {
+        /**
+         * The rule that matched, null if none did.
+         */
+        public final FilterPredicate rule;
+        private volatile boolean referenced = false;
+
+        private Entry(FilterPredicate rule) {
+            this.rule = rule;
+        }
+    }
+
+    private static class Key {
+        private String loggerName;
+        private Level level;
+        private String threadName;
+        private String format;
+        private int hash;
+
+        private Key set(FilterEvent event) {
+            loggerName = event.getLoggerName();
+            level = event.getLevel();
+            threadName = event.get(FilterEvent.THREAD_NAME);
+            format = event.getFormat();
+            hash = ((Objects.hashCode(loggerName) * 31 + Objects.hashCode(level)) * 31 + Objects.hashCode(threadName)) * 31 + Objects.hashCode(format);
+            return this;
+        }
+
+        private void clear() {
+            loggerName = null;
+            threadName = null;
+            format = null;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key key && hash == key.hash && level == key.level && Objects.equals(loggerName, key.loggerName)
+                    && Objects.equals(threadName, key.threadName) && Objects.equals(format, key.format);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
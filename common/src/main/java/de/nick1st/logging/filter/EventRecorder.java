@@ -0,0 +1,331 @@
+package de.nick1st.logging.filter;
+
+import com.google.gson.stream.JsonWriter;
+import org.apache.logging.log4j.core.LogEvent;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Records the fields rules match on into a preallocated ring buffer, a background thread writes them to an NDJSON
+ * file (one JSON object per line). Replaces the old logEvents dump, which formatted and logged every event again.
+ * <p>
+ * Logging threads never block: a sequence is claimed with a single atomic increment, then its slot with a compare and
+ * set of the slot's sequence number to a writing marker. If a writer a lap behind still fills the slot, or one a lap
+ * ahead got to it first, the event is dropped instead of tearing the slot. The flusher skips slots that were
+ * overwritten, dropped or are still being written, if it falls behind by more than the buffer size the oldest events
+ * are dropped and counted.
+ * <p>
+ * Without triggers every recorded event is written. With triggers, events only go to the ring and the buffer works
+ * like a flight recorder: once a trigger rule matches an event, the history still in the buffer and the next
+ * {@link Config.Capture#postTriggerEvents} events are written.
+ */
+public class EventRecorder {
+    private static final int MAX_PARAMETERS = 16;
+
+    private final Slot[] slots;
+    private final int mask;
+    private final int sampleRate;
+    private final List<FilterPredicate> triggers = new ArrayList<>();
+    private final int postTriggerEvents;
+    private final long flushIntervalNanos;
+    private final long maxFileSize;
+    private final Path file;
+    private final AtomicLong head = new AtomicLong();
+    // Events up to this sequence (exclusive) are written, only used with triggers
+    private final AtomicLong writeUntil = new AtomicLong();
+    private final Thread flusher;
+    private volatile boolean stopped = false;
+    private EventRecorder previous;
+
+    // Only touched by the flusher thread
+    private final Slot copy = new Slot();
+    private long tail = 0;
+    private long written = 0;
+    private long dropped = 0;
+    private FileChannel channel;
+    private Writer writer;
+
+    public EventRecorder(Config.Capture capture, Path file) {
+        int size = Integer.highestOneBit(Math.max(2, Math.min(capture.bufferSize, 1 << 24)) - 1) << 1;
+        slots = new Slot[size];
+        for (int i = 0; i < size; i++) {
+            slots[i] = new Slot();
+        }
+        mask = size - 1;
+        sampleRate = Math.max(1, capture.sampleRate);
+        LiteralMatcher literals = new LiteralMatcher();
+        for (Config.FilterRule trigger : capture.triggers) {
+            triggers.add(new FilterPredicate(trigger, literals, Config.RuleBackend.METHOD_HANDLE));
+        }
+        literals.build();
+        postTriggerEvents = Math.max(0, capture.postTriggerEvents);
+        flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(10, capture.flushIntervalMillis));
+        maxFileSize = capture.maxFileSizeMb * 1024L * 1024L;
+        this.file = file;
+        flusher = new Thread(this::run, "Log Filter Capture");
+        flusher.setDaemon(true);
+    }
+
+    /**
+     * @param previous the recorder this one replaces, its remaining events are written before the file is reopened
+     */
+    public void start(EventRecorder previous) {
+        this.previous = previous;
+        flusher.start();
+    }
+
+    /**
+     * Stops recording, the flusher writes what is left and closes the file.
+     */
+    public void stop() {
+        stopped = true;
+        LockSupport.unpark(flusher);
+    }
+
+    /**
+     * Called on the logging thread while the filter event is still valid.
+     */
+    public void record(LogEvent event, FilterEvent filterEvent, boolean denied) {
+        boolean triggered = false;
+        for (FilterPredicate trigger : triggers) {
+            if (trigger.test(filterEvent)) {
+                triggered = true;
+                break;
+            }
+        }
+        if (!triggered && sampleRate > 1 && ThreadLocalRandom.current().nextInt(sampleRate) != 0) return;
+
+        long sequence = head.getAndIncrement();
+        Slot slot = slots[(int) (sequence & mask)];
+        if (slot.claim(sequence)) {
+            write(slot, sequence, event, filterEvent, denied);
+        }
+
+        if (triggered) {
+            writeUntil.accumulateAndGet(sequence + 1 + postTriggerEvents, Math::max);
+            LockSupport.unpark(flusher);
+        }
+    }
+
+    private static void write(Slot slot, long sequence, LogEvent event, FilterEvent filterEvent, boolean denied) {
+        slot.time = event.getTimeMillis();
+        slot.level = event.getLevel().name();
+        slot.loggerName = filterEvent.getLoggerName();
+        slot.threadName = filterEvent.get(FilterEvent.THREAD_NAME);
+        slot.throwable = filterEvent.getThrowableInfo();
+        if (slot.throwable != null) {
+            // Walked while the throwable is certainly alive, the info only holds it weakly
+            slot.throwable.frames();
+        }
+        slot.message = filterEvent.get(FilterEvent.MESSAGE);
+        slot.format = filterEvent.getFormat();
+        int count = Math.min(filterEvent.getParameterCount(), MAX_PARAMETERS);
+        for (int i = 0; i < count; i++) {
+            Object parameter = filterEvent.getParameter(i);
+            slot.parameterClasses[i] = parameter != null ? parameter.getClass().getName() : "null";
+            slot.parameterValues[i] = filterEvent.get(FilterEvent.parameterValue(i));
+        }
+        slot.parameterCount = count;
+        slot.denied = denied;
+        slot.sequence = sequence;
+    }
+
+    private void run() {
+        if (previous != null) {
+            try {
+                previous.flusher.join();
+            } catch (InterruptedException e) {
+                return;
+            }
+            previous = null;
+        }
+        try {
+            open();
+            Constants.LOG.info("Capturing log events to {}", file);
+            while (!stopped) {
+                LockSupport.parkNanos(flushIntervalNanos);
+                flush();
+            }
+            flush();
+        } catch (IOException e) {
+            Constants.LOG.error("Couldn't write captured events to {}", file, e);
+        } finally {
+            close();
+        }
+        Constants.LOG.info("Captured {} log events to {}, {} were dropped", written, file, dropped);
+    }
+
+    /**
+     * Appends to the capture of earlier runs, once the file reached maxFileSizeMb it is moved to {@code <file>.1}
+     * (replacing the one before) and a new one is started.
+     */
+    private void open() throws IOException {
+        if (maxFileSize > 0 && Files.exists(file) && Files.size(file) >= maxFileSize) {
+            Files.move(file, file.resolveSibling(file.getFileName() + ".1"), StandardCopyOption.REPLACE_EXISTING);
+        }
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = channel.size();
+        channel.position(size);
+        writer = new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8), 1 << 16);
+        // A run that was killed may have left half a line
+        if (size > 0) {
+            ByteBuffer last = ByteBuffer.allocate(1);
+            channel.read(last, size - 1);
+            if (last.get(0) != '\n') writer.write('\n');
+        }
+    }
+
+    private void close() {
+        try {
+            if (writer != null) writer.close();
+        } catch (IOException e) {
+            Constants.LOG.error("Couldn't write captured events to {}", file, e);
+        }
+        writer = null;
+        channel = null;
+    }
+
+    private void flush() throws IOException {
+        long head = this.head.get();
+        // Without triggers everything is written, otherwise only what a trigger asked for
+        long until = triggers.isEmpty() ? head : Math.min(head, writeUntil.get());
+        long oldest = head - slots.length;
+        if (tail < oldest) {
+            // Overwritten history no trigger asked for isn't lost
+            dropped += Math.max(0, Math.min(oldest, until) - tail);
+            tail = oldest;
+        }
+        if (maxFileSize > 0 && channel.size() >= maxFileSize) {
+            writer.close();
+            open();
+        }
+        for (; tail < until; tail++) {
+            Slot slot = slots[(int) (tail & mask)];
+            long sequence = slot.sequence;
+            // Claimed but not written yet, try again next time. Unless its writer found the slot taken and dropped it.
+            if (sequence < tail && slot.skipped != tail) break;
+            if (sequence != tail || !copy.copyFrom(slot, tail)) {
+                dropped++;
+                continue;
+            }
+            copy.write(writer);
+            written++;
+        }
+        writer.flush();
+    }
+
+    private static class Slot {
+        private static final long WRITING = Long.MIN_VALUE;
+        private static final VarHandle SEQUENCE;
+        private static final VarHandle SKIPPED;
+
+        static {
+            try {
+                SEQUENCE = MethodHandles.lookup().findVarHandle(Slot.class, "sequence", long.class);
+                SKIPPED = MethodHandles.lookup().findVarHandle(Slot.class, "skipped", long.class);
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        // The event this slot holds, WRITING while it is written
+        private volatile long sequence = -1;
+        // The latest event that was dropped because the slot was taken, so the flusher doesn't wait for it
+        private volatile long skipped = -1;
+        private long time;
+        private String level;
+        private String loggerName;
+        private String threadName;
+        private ThrowableInfo throwable;
+        private String message;
+        private String format;
+        private final String[] parameterClasses = new String[MAX_PARAMETERS];
+        private final String[] parameterValues = new String[MAX_PARAMETERS];
+        private int parameterCount;
+        private boolean denied;
+
+        /**
+         * Takes the slot for an event. Fails if a writer is still filling it, or it holds a later event already, then
+         * the event is marked as skipped.
+         */
+        private boolean claim(long sequence) {
+            long previous = this.sequence;
+            // Sequences only grow, so the value read here can't come back after another writer took the slot
+            if (previous != WRITING && previous < sequence && SEQUENCE.compareAndSet(this, previous, WRITING)) return true;
+            long skipped;
+            do {
+                skipped = this.skipped;
+            } while (skipped < sequence && !SKIPPED.compareAndSet(this, skipped, sequence));
+            return false;
+        }
+
+        /**
+         * Copies another slot, returns false if it was overwritten meanwhile.
+         */
+        private boolean copyFrom(Slot slot, long sequence) {
+            time = slot.time;
+            level = slot.level;
+            loggerName = slot.loggerName;
+            threadName = slot.threadName;
+            throwable = slot.throwable;
+            message = slot.message;
+            format = slot.format;
+            parameterCount = Math.min(slot.parameterCount, MAX_PARAMETERS);
+            System.arraycopy(slot.parameterClasses, 0, parameterClasses, 0, parameterCount);
+            System.arraycopy(slot.parameterValues, 0, parameterValues, 0, parameterCount);
+            denied = slot.denied;
+            // The fields must be read before the sequence is checked again
+            VarHandle.loadLoadFence();
+            return slot.sequence == sequence;
+        }
+
+        private void write(Writer writer) throws IOException {
+            JsonWriter json = new JsonWriter(writer);
+            json.setSerializeNulls(false);
+            json.beginObject();
+            json.name("time").value(time);
+            json.name("level").value(level);
+            json.name("loggerName").value(loggerName);
+            json.name("threadName").value(threadName);
+            if (throwable != null) {
+                json.name("throwableClass").value(throwable.className);
+                json.name("causeClasses").beginArray();
+                for (String causeClass : throwable.causeClasses) json.value(causeClass);
+                json.endArray();
+                json.name("rootCauseMessage").value(throwable.rootCauseMessage);
+                json.name("stackFrames").beginArray();
+                for (String frame : throwable.frames()) json.value(frame);
+                json.endArray();
+            }
+            json.name("message").value(message);
+            json.name("format").value(format);
+            json.name("parameterClasses").beginArray();
+            for (int i = 0; i < parameterCount; i++) json.value(parameterClasses[i]);
+            json.endArray();
+            json.name("parameterValues").beginArray();
+            for (int i = 0; i < parameterCount; i++) json.value(parameterValues[i]);
+            json.endArray();
+            json.name("denied").value(denied);
+            json.endObject();
+            writer.write('\n');
+        }
+    }
+}
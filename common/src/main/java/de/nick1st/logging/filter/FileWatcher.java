@@ -1,22 +1,35 @@
 package de.nick1st.logging.filter;
 
 import java.io.File;
+import java.io.IOException;
 import java.nio.file.*;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
+/**
+ * Runs a task when a file changes. The thread blocks on the {@link WatchService} while nothing happens, and a burst of
+ * events (editors often write a file several times per save) is debounced into a single run once the file was quiet for
+ * {@link #DEBOUNCE_MILLIS}.
+ */
 public class FileWatcher extends Thread {
+    private static final long DEBOUNCE_MILLIS = 200;
+
     private final File file;
     private final Runnable runnable;
-    private AtomicBoolean stop = new AtomicBoolean(false);
+    private final AtomicBoolean stop = new AtomicBoolean(false);
 
     public FileWatcher(File file, Runnable runnable) {
+        super("Log Filter Config Watcher");
         this.file = file;
         this.runnable = runnable;
     }
 
     public boolean isStopped() { return stop.get(); }
-    public void stopThread() { stop.set(true); }
+
+    public void stopThread() {
+        stop.set(true);
+        interrupt();
+    }
 
     public synchronized void doOnChange() {
         runnable.run();
@@ -26,34 +39,36 @@ public class FileWatcher extends Thread {
     public void run() {
         try (WatchService watcher = FileSystems.getDefault().newWatchService()) {
             Path path = file.toPath().getParent();
-            path.register(watcher, StandardWatchEventKinds.ENTRY_MODIFY);
+            // Some editors save by writing a new file and moving it over the old one
+            path.register(watcher, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_CREATE);
             while (!isStopped()) {
-                WatchKey key;
-                try { key = watcher.poll(25, TimeUnit.MILLISECONDS); }
-                catch (InterruptedException e) { return; }
-                if (key == null) { Thread.yield(); continue; }
-
-                for (WatchEvent<?> event : key.pollEvents()) {
-                    WatchEvent.Kind<?> kind = event.kind();
-
-                    @SuppressWarnings("unchecked")
-                    WatchEvent<Path> ev = (WatchEvent<Path>) event;
-                    Path filename = ev.context();
-
-                    if (kind == StandardWatchEventKinds.OVERFLOW) {
-                        Thread.yield();
-                        continue;
-                    } else if (kind == java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY
-                            && filename.toString().equals(file.getName())) {
-                        doOnChange();
-                    }
-                    boolean valid = key.reset();
-                    if (!valid) { break; }
+                WatchKey key = watcher.take();
+                boolean changed = drain(key);
+                // Wait until the file is quiet, events arriving meanwhile are part of the same save
+                while ((key = watcher.poll(DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+                    changed |= drain(key);
+                }
+                if (changed && !isStopped()) {
+                    doOnChange();
                 }
-                Thread.yield();
             }
-        } catch (Exception e) {
+        } catch (InterruptedException | ClosedWatchServiceException ignored) {
+        } catch (IOException e) {
             Constants.LOG.error(e.getMessage(), e);
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Consumes the events of a key and resets it, returns whether one of them concerns the watched file.
+     */
+    private boolean drain(WatchKey key) {
+        boolean changed = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            // On an overflow events were lost, the file might have changed
+            changed |= event.kind() == StandardWatchEventKinds.OVERFLOW
+                    || event.context() instanceof Path filename && filename.toString().equals(file.getName());
+        }
+        key.reset();
+        return changed;
+    }
+}
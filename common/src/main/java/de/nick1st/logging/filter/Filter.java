@@ -1,68 +1,394 @@
 package de.nick1st.logging.filter;
 
+import org.apache.logging.log4j.Marker;
 import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.Logger;
 import org.apache.logging.log4j.core.filter.AbstractFilter;
+import org.apache.logging.log4j.message.Message;
 import org.slf4j.event.Level;
 
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Locale;
 import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 import static de.nick1st.logging.filter.Constants.MOD_NAME;
 
-public class Filter extends AbstractFilter {
+public final class Filter extends AbstractFilter {
 
-    public Config.LogLevel debugLevel = Config.LogLevel.NONE;
+    private volatile RuleSet ruleSet = RuleSet.EMPTY;
+    private final Object rulesLock = new Object();
+    public final FilterMetrics metrics = new FilterMetrics(this::getRuleSet);
+    private final Object firingsLock = new Object();
+    private long lastFiringReport = System.nanoTime();
+    private volatile EventRecorder recorder;
+    // Events seen since the last overload check, only counted while overload protection is on
+    private final LongAdder incoming = new LongAdder();
+    private volatile boolean overloaded = false;
+    // Only touched by checkOverload()
+    private long lastOverloadCheck = System.nanoTime();
+    private long overloadStart;
+    private long lastBusy;
+    // The last event of this thread the targeted rules were evaluated for
+    private final ThreadLocal<TargetDecision> targetDecisions = ThreadLocal.withInitial(TargetDecision::new);
 
-    public List<FilterPredicate> filters = new ArrayList<>();
+    public RuleSet getRuleSet() {
+        return ruleSet;
+    }
+
+    public RuleIndex getRules() {
+        return ruleSet.rules;
+    }
+
+    public DecisionCache getDecisionCache() {
+        return ruleSet.decisions;
+    }
+
+    /**
+     * Atomically swaps in a new rule set, logging threads see either the old or the new one as a whole.
+     */
+    public void setRuleSet(RuleSet ruleSet) {
+        synchronized (rulesLock) {
+            this.ruleSet = ruleSet;
+        }
+    }
+
+    /**
+     * Records every event reaching {@link #filter(LogEvent)} from now on, null stops recording.
+     *
+     * @return the previous recorder, it is stopped already
+     */
+    public EventRecorder setRecorder(EventRecorder recorder) {
+        EventRecorder previous = this.recorder;
+        this.recorder = recorder;
+        if (previous != null) {
+            previous.stop();
+        }
+        return previous;
+    }
+
+    /**
+     * Republishes the rules ordered by their recent hit rate, highest first. Which rule matches first only decides
+     * which one gets credited, an event is denied if any rule denies it. Throttling rules are the exception, the rules
+     * before one decide which events spend its budget. So they keep their place, and the other rules are only sorted
+     * between them, never across one. Counts decay by half each call, so the order follows the current log traffic.
+     * Called periodically from a background thread, the filter path never takes the lock.
+     */
+    public void reorder() {
+        synchronized (rulesLock) {
+            RuleSet ruleSet = this.ruleSet;
+            List<FilterPredicate> filters = ruleSet.rules.getFilters();
+            for (FilterPredicate filter : filters) {
+                long hits = filter.hits.sumThenReset();
+                filter.hitScore = filter.hitScore / 2 + hits;
+                filter.evaluationScore = filter.evaluationScore / 2 + hits + filter.misses.sumThenReset();
+            }
+            List<FilterPredicate> sorted = new ArrayList<>(filters);
+            Comparator<FilterPredicate> byHitRate = Comparator.comparingDouble(filter -> filter.evaluationScore > 0 ? -filter.hitScore / filter.evaluationScore : 0);
+            int start = 0;
+            for (int i = 0; i <= sorted.size(); i++) {
+                if (i == sorted.size() || sorted.get(i).throttle != null) {
+                    sorted.subList(start, i).sort(byHitRate);
+                    start = i + 1;
+                }
+            }
+            // The decision cache is kept, it only differs in which rule gets credited
+            if (!sorted.equals(filters)) {
+                this.ruleSet = ruleSet.withOrder(sorted);
+            }
+        }
+    }
+
+    /**
+     * Measures the event rate since the last call and switches between the normal and the overload rules, see
+     * {@link Config.Overload}. The filter path only counts and reads a volatile flag. Called about once a second from a
+     * background thread, logs one line whenever the mode changes.
+     */
+    public void checkOverload() {
+        long now = System.nanoTime();
+        double rate = incoming.sumThenReset() / Math.max(1e-3, (now - lastOverloadCheck) / 1e9);
+        lastOverloadCheck = now;
+        Config.Overload settings = ruleSet.overloadSettings;
+        if (settings == null) {
+            if (overloaded) {
+                overloaded = false;
+                Constants.LOG.info("Overload protection was turned off, back to the normal rules");
+            }
+            return;
+        }
+        if (!overloaded) {
+            if (rate > settings.enterRate) {
+                overloaded = true;
+                overloadStart = now;
+                lastBusy = now;
+                Constants.LOG.warn("Logging storm of {} events/s, adding the overload rules until it stays below {} events/s for {} s",
+                        String.format(Locale.ROOT, "%,.0f", rate), settings.exitRate, settings.exitSeconds);
+            }
+        } else if (rate >= settings.exitRate) {
+            lastBusy = now;
+        } else if (now - lastBusy >= TimeUnit.SECONDS.toNanos(settings.exitSeconds)) {
+            overloaded = false;
+            Constants.LOG.info("Logging storm is over after {} s, back to the normal rules", Math.round((now - overloadStart) / 1e9));
+        }
+    }
+
+    // The overload rules replace the normal ones while a storm lasts
+    private RuleSet select(RuleSet ruleSet) {
+        return overloaded && ruleSet.overload != null ? ruleSet.overload : ruleSet;
+    }
 
     @Override
     public Result filter(LogEvent event) {
-        for (FilterPredicate filter : filters) {
-            if (filter.test(event)) {
-                if (filter.logFiltered) {
-                    Level level = Level.INFO;
-                    try {
-                        Level.valueOf(debugLevel.name());
-                    } catch (IllegalArgumentException ignored) {}
-                    Constants.LOG.atLevel(level).log("Filtered message of level {}", event.getLevel());
+        RuleSet ruleSet = this.ruleSet;
+        if (ruleSet.overload != null) {
+            incoming.increment();
+            ruleSet = select(ruleSet);
+        }
+        FilterEvent filterEvent = FilterEvent.acquire().set(event);
+        try {
+            if (ruleSet.metrics) metrics.seen.increment();
+            boolean denied = test(ruleSet, filterEvent, false);
+            if (denied && ruleSet.metrics) metrics.denied.increment();
+            EventRecorder recorder = this.recorder;
+            if (recorder != null && !Objects.equals(event.getLoggerName(), MOD_NAME)) {
+                recorder.record(event, filterEvent, denied);
+            }
+            return denied ? Result.DENY : Result.NEUTRAL;
+        } finally {
+            filterEvent.release();
+        }
+    }
+
+    // The overloads below are only called when the filter is installed context-wide (Config.InstallMode.CONTEXT).
+    // log4j consults them before it creates a LogEvent, so only rules that don't need the formatted message are tested.
+
+    @Override
+    public Result filter(Logger logger, org.apache.logging.log4j.Level level, Marker marker, String msg) {
+        return filter(logger, level, marker, msg, (Object[]) null);
+    }
+
+    @Override
+    public Result filter(Logger logger, org.apache.logging.log4j.Level level, Marker marker, String msg, Object... params) {
+        if (msg == null || !isEnabled(logger, level)) return Result.NEUTRAL;
+        return filterPreEvent(FilterEvent.acquire().set(logger.getName(), level, msg, params));
+    }
+
+    @Override
+    public Result filter(Logger logger, org.apache.logging.log4j.Level level, Marker marker, Message msg, Throwable t) {
+        if (msg == null || !isEnabled(logger, level)) return Result.NEUTRAL;
+        return filterPreEvent(FilterEvent.acquire().set(logger.getName(), level, msg));
+    }
+
+    // A context-wide filter runs before log4j's level check, don't spend time on calls that get dropped anyway
+    private static boolean isEnabled(Logger logger, org.apache.logging.log4j.Level level) {
+        return level.isMoreSpecificThan(logger.getLevel());
+    }
+
+    private Result filterPreEvent(FilterEvent event) {
+        RuleSet current = this.ruleSet;
+        RuleSet ruleSet = select(current);
+        try {
+            if (test(ruleSet, event, true)) {
+                // Events passing here are counted once they reach filter(LogEvent)
+                if (current.overload != null) incoming.increment();
+                if (ruleSet.metrics) {
+                    metrics.seen.increment();
+                    metrics.denied.increment();
                 }
                 return Result.DENY;
             }
+            return Result.NEUTRAL;
+        } finally {
+            event.release();
+        }
+    }
+
+    private boolean test(RuleSet ruleSet, FilterEvent event, boolean preEvent) {
+        boolean adaptive = ruleSet.adaptive;
+        DecisionCache decisions = ruleSet.decisions;
+        RuleIndex rules = ruleSet.rules;
+        // Static only rule sets consist of pre-event rules, so both paths make the same decision
+        boolean cacheable = decisions.isEnabled() && rules.isStaticOnly();
+        if (cacheable) {
+            DecisionCache.Entry cached = decisions.get(event);
+            if (cached != null) {
+                if (cached.rule == null) return false;
+                if (adaptive) cached.rule.hits.increment();
+                if (ruleSet.metrics) cached.rule.metrics.matches.increment();
+                logRuleFiring(cached.rule, event.getLevel());
+                return true;
+            }
+        }
+        FilterPredicate matched = null;
+        for (FilterPredicate filter : rules.candidates(event.getLoggerName(), event.getLevel())) {
+            if (preEvent && filter.throttle != null) {
+                // The throttle has to see the events that reach it, so anything from here on is left to filter(LogEvent)
+                return false;
+            }
+            if (preEvent && !filter.preEvent) continue;
+            // A throttling rule lets some of its events through, a later rule may still deny them
+            if ((ruleSet.metrics ? filter.metrics.evaluate(filter, event) : filter.test(event))
+                    && (filter.throttle == null || filter.throttle.deny(event))) {
+                if (adaptive) filter.hits.increment();
+                if (ruleSet.metrics) filter.metrics.matches.increment();
+                matched = filter;
+                break;
+            }
+            if (adaptive) filter.misses.increment();
+        }
+        if (cacheable) {
+            decisions.put(event, matched);
+        }
+        if (matched != null) {
+            logRuleFiring(matched, event.getLevel());
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Whether a targeted rule denies the event for the appender with the given bit, see {@link AppenderFilter}.
+     * <p>
+     * The targeted rules are evaluated once per event into a mask of all appenders they deny it for, the filters of
+     * the other appenders get their answer from the same mask. log4j reuses event objects per thread, so besides the
+     * identity the decision is checked against the event's logger, level, time and format, and an appender asking
+     * twice always means a new event.
+     */
+    boolean deniesTarget(LogEvent event, long bit) {
+        RuleSet ruleSet = select(this.ruleSet);
+        TargetedRules targeted = ruleSet.targeted;
+        if (targeted == null || (targeted.all & bit) == 0) return false;
+        TargetDecision decision = targetDecisions.get();
+        if ((decision.asked & bit) != 0 || !decision.isFor(event, targeted)) {
+            FilterEvent filterEvent = FilterEvent.acquire().set(event);
+            try {
+                decision.set(event, targeted, testTargets(ruleSet, filterEvent));
+            } finally {
+                filterEvent.release();
+            }
+        }
+        decision.asked |= bit;
+        return (decision.denied & bit) != 0;
+    }
+
+    // Unlike test(), every matching rule counts, until the event is denied for all targets
+    private static long testTargets(RuleSet ruleSet, FilterEvent event) {
+        TargetedRules targeted = ruleSet.targeted;
+        long denied = 0;
+        for (FilterPredicate filter : targeted.rules.candidates(event.getLoggerName(), event.getLevel())) {
+            long mask = targeted.mask(filter);
+            if ((denied & mask) == mask) continue;
+            if (ruleSet.metrics ? filter.metrics.evaluate(filter, event) : filter.test(event)) {
+                if (filter.throttle != null && !filter.throttle.deny(event)) continue;
+                if (ruleSet.metrics) filter.metrics.matches.increment();
+                denied |= mask;
+                logRuleFiring(filter, event.getLevel());
+                if (denied == targeted.all) break;
+            }
+        }
+        return denied;
+    }
+
+    private static final class TargetDecision {
+        private LogEvent event;
+        private TargetedRules rules;
+        private String loggerName;
+        private org.apache.logging.log4j.Level level;
+        private long millis;
+        private int nanos;
+        private String format;
+        // The appenders that got this decision, and the ones it denies the event for
+        private long asked;
+        private long denied;
+
+        private boolean isFor(LogEvent event, TargetedRules rules) {
+            return event == this.event && rules == this.rules && event.getLoggerName() == loggerName && event.getLevel() == level
+                    && event.getTimeMillis() == millis && event.getInstant().getNanoOfMillisecond() == nanos
+                    && event.getMessage().getFormat() == format;
+        }
+
+        private void set(LogEvent event, TargetedRules rules, long denied) {
+            this.event = event;
+            this.rules = rules;
+            loggerName = event.getLoggerName();
+            level = event.getLevel();
+            millis = event.getTimeMillis();
+            nanos = event.getInstant().getNanoOfMillisecond();
+            format = event.getMessage().getFormat();
+            asked = 0;
+            this.denied = denied;
+        }
+    }
+
+    private static void logRuleFiring(FilterPredicate filter, org.apache.logging.log4j.Level eventLevel) {
+        if (filter.logFiltered) {
+            filter.firings[Config.LogLevel.convert(eventLevel).ordinal()].increment();
+        }
+    }
+
+    /**
+     * Logs one summary line per rule and level for the events denied by rules with logRuleFiring since the last call.
+     * The filter path only counts, so reporting never re-enters logging from inside log4j. Called periodically from a
+     * background thread and before a new rule set replaces the current one.
+     */
+    public void reportFirings() {
+        synchronized (firingsLock) {
+            long now = System.nanoTime();
+            long seconds = Math.max(1, Math.round((now - lastFiringReport) / 1e9));
+            lastFiringReport = now;
+            RuleSet ruleSet = this.ruleSet;
+            Level level = reportLevel(ruleSet);
+            for (FilterPredicate filter : byNumber(ruleSet)) {
+                for (int i = 0; i < filter.firings.length; i++) {
+                    long count = filter.firings[i].sumThenReset();
+                    if (count > 0) {
+                        Constants.LOG.atLevel(level).log("Rule #{} suppressed {} {} events in the last {} s", number(ruleSet, filter),
+                                String.format(Locale.ROOT, "%,d", count), Config.LogLevel.values()[i], seconds);
+                    }
+                }
+            }
         }
-        if (debugLevel != Config.LogLevel.NONE && !Objects.equals(event.getLoggerName(), MOD_NAME)) {
-            logEvents(event);
-            return Result.DENY;
+    }
+
+    /**
+     * Logs the suppressed events of the throttling rules whose burst ended, see {@link Throttle#report(int)}. Called
+     * about once a second from a background thread and before a new rule set replaces the current one.
+     */
+    public void reportBursts() {
+        synchronized (firingsLock) {
+            RuleSet ruleSet = this.ruleSet;
+            Level level = reportLevel(ruleSet);
+            for (FilterPredicate filter : byNumber(ruleSet)) {
+                if (filter.throttle == null) continue;
+                for (String line : filter.throttle.report(number(ruleSet, filter))) {
+                    // As an argument, the line may contain a format string with "{}"
+                    Constants.LOG.atLevel(level).log("{}", line);
+                }
+            }
         }
-        return Result.NEUTRAL;
     }
 
-    private void logEvents(LogEvent event) {
-        Throwable throwable = event.getMessage().getThrowable();
-        Level level = Level.INFO;
+    private static Level reportLevel(RuleSet ruleSet) {
         try {
-            level = Level.valueOf(event.getLevel().name());
+            return Level.valueOf(ruleSet.reportLevel.name());
         } catch (IllegalArgumentException ignored) {
+            return Level.INFO;
         }
-        Object[] params = event.getMessage().getParameters();
-        Constants.LOG. atLevel(level).log("""
-                Logging event:
-                    - Level: {}
-                    - Logger name: {}
-                    - Thread name: {}
-                    - Throwable class: {}
-                    - Message: {}
-                    - Format message: {}
-                    - Parameter classes: {}
-                """,
-                event.getLevel().name(),
-                event.getLoggerName(),
-                event.getThreadName(),
-                throwable != null ? throwable.getClass().getName() : null,
-                event.getMessage().getFormattedMessage(),
-                event.getMessage().getFormat(),
-                Arrays.toString(Arrays.stream(params != null ? params : new Object[0]).map(param -> param != null ? param.getClass().getName() : "null").toArray())
-        );
+    }
+
+    // Reordering doesn't change which rules exist, report them by their position in the config and each one once
+    static List<FilterPredicate> byNumber(RuleSet ruleSet) {
+        List<FilterPredicate> filters = new ArrayList<>(ruleSet.allRules());
+        if (ruleSet.overload != null) filters.addAll(ruleSet.overload.allRules());
+        return filters.stream().distinct().sorted(Comparator.comparingInt(filter -> number(ruleSet, filter))).toList();
+    }
+
+    // The overload rule set numbers the normal rules the same way
+    static int number(RuleSet ruleSet, FilterPredicate filter) {
+        int number = ruleSet.number(filter);
+        return number == 0 && ruleSet.overload != null ? ruleSet.overload.number(filter) : number;
     }
 }
@@ -0,0 +1,350 @@
+package de.nick1st.logging.filter;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.message.Message;
+import org.apache.logging.log4j.message.ParameterizedMessage;
+import org.apache.logging.log4j.message.ReusableMessage;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * The parts of a log call the rules can match on.
+ * It is either backed by a {@link LogEvent}, or for pre-event filtering by the arguments of the logger call itself,
+ * in which case log4j has not created an event (or formatted anything) yet. For offline replay (see {@link Replay}) it
+ * is backed by the already rendered fields of an event read from a file.
+ * <p>
+ * String fields are computed lazily the first time a rule needs them and then shared by all rules. So are the parameters
+ * of a message, most events never reach a parameter rule. Instances are pooled per thread, see {@link #acquire()} and
+ * {@link #release()}.
+ */
+public class FilterEvent {
+    public static final int LOGGER_NAME = 0;
+    public static final int THREAD_NAME = 1;
+    public static final int THROWABLE_CLASS = 2;
+    public static final int MESSAGE = 3;
+    public static final int FORMAT = 4;
+    public static final int ROOT_CAUSE_MESSAGE = 5;
+    private static final int PARAMETERS = 6;
+
+    private static final ThreadLocal<FilterEvent> POOL = ThreadLocal.withInitial(FilterEvent::new);
+
+    private String loggerName;
+    private Level level;
+    private LogEvent event;
+    private Message message;
+    private String format;
+    // Valid if its stamp equals the current generation, see fetchParameters(). Only the first parameterCount are used.
+    private int parametersStamp;
+    private Object[] parameters;
+    private int parameterCount;
+    // Lent to reusable messages while their parameters are read, see fetchParameters()
+    private Object[] swapBuffer = new Object[10];
+    // Only set for recorded events, see set(String, Level, String, ThrowableInfo, String, String, String[], String[])
+    private boolean recorded;
+    private String threadName;
+    private String formattedMessage;
+    private String[] parameterClasses;
+    // Valid if its stamp equals the current generation, like the field values
+    private int throwableStamp;
+    private ThrowableInfo throwable;
+    // Bounded renderings of the parameters by index, see getParameterValue(int, int)
+    private int[] renderStamps = new int[4];
+    private String[] renders = new String[4];
+    private int[] renderLimits = new int[4];
+
+    // A slot is valid if its stamp equals the current generation, that way nothing has to be cleared between events.
+    // Generation 0 is skipped, so fresh (zeroed) slots are never valid.
+    private int generation = 0;
+    private int[] stamps = new int[PARAMETERS + 4];
+    private String[] values = new String[PARAMETERS + 4];
+    private int[] literalStamps = new int[PARAMETERS + 4];
+    private LiteralMatcher[] literalMatchers = new LiteralMatcher[PARAMETERS + 4];
+    private long[][] literalHits = new long[PARAMETERS + 4][];
+    private boolean inUse = false;
+
+    /**
+     * The field id of the class name of the parameter at the given index.
+     */
+    public static int parameterClass(int index) {
+        if (index < 0) throw new IllegalArgumentException("Negative parameter index " + index);
+        return PARAMETERS + 2 * index;
+    }
+
+    /**
+     * The field id of the string value of the parameter at the given index.
+     */
+    public static int parameterValue(int index) {
+        if (index < 0) throw new IllegalArgumentException("Negative parameter index " + index);
+        return PARAMETERS + 2 * index + 1;
+    }
+
+    /**
+     * Whether a field can be missing, e.g. the throwable class of an event without throwable or a parameter index past
+     * the last parameter. Rules on such a field don't match if it is missing, see {@link #get(int)}.
+     */
+    public static boolean nullable(int field) {
+        return field == THROWABLE_CLASS || field == ROOT_CAUSE_MESSAGE || field >= PARAMETERS;
+    }
+
+    /**
+     * Returns this thread's pooled instance. If it is still in use further up the stack (the filter got re-entered) a
+     * fresh one is returned instead.
+     */
+    public static FilterEvent acquire() {
+        FilterEvent filterEvent = POOL.get();
+        if (filterEvent.inUse) {
+            filterEvent = new FilterEvent();
+        }
+        filterEvent.inUse = true;
+        return filterEvent;
+    }
+
+    public void release() {
+        event = null;
+        message = null;
+        format = null;
+        if (parameters == swapBuffer) {
+            Arrays.fill(swapBuffer, null);
+        }
+        parameters = null;
+        recorded = false;
+        threadName = null;
+        throwable = null;
+        formattedMessage = null;
+        parameterClasses = null;
+        inUse = false;
+    }
+
+    public FilterEvent set(LogEvent event) {
+        Message message = event.getMessage();
+        return set(event.getLoggerName(), event.getLevel(), event, message, message.getFormat());
+    }
+
+    public FilterEvent set(String loggerName, Level level, Message message) {
+        return set(loggerName, level, null, message, message.getFormat());
+    }
+
+    public FilterEvent set(String loggerName, Level level, String format, Object[] parameters) {
+        return set(loggerName, level, null, null, format).setParameters(parameters, parameters != null ? parameters.length : 0);
+    }
+
+    /**
+     * Sets a recorded event, whose fields are strings already. The parameter values double as the parameters.
+     */
+    public FilterEvent set(String loggerName, Level level, String threadName, ThrowableInfo throwable, String message, String format,
+                           String[] parameterClasses, String[] parameterValues) {
+        set(loggerName, level, null, null, format).setParameters(parameterValues, parameterValues != null ? parameterValues.length : 0);
+        this.recorded = true;
+        this.threadName = threadName;
+        this.throwable = throwable;
+        this.throwableStamp = generation;
+        this.formattedMessage = message;
+        this.parameterClasses = parameterClasses;
+        return this;
+    }
+
+    private FilterEvent set(String loggerName, Level level, LogEvent event, Message message, String format) {
+        this.loggerName = loggerName;
+        this.level = level;
+        this.event = event;
+        this.message = message;
+        this.format = format;
+        this.recorded = false;
+        if (++generation == 0) {
+            Arrays.fill(stamps, 0);
+            Arrays.fill(literalStamps, 0);
+            Arrays.fill(renderStamps, 0);
+            throwableStamp = 0;
+            parametersStamp = 0;
+            generation = 1;
+        }
+        return this;
+    }
+
+    private FilterEvent setParameters(Object[] parameters, int count) {
+        this.parameters = parameters;
+        this.parameterCount = count;
+        this.parametersStamp = generation;
+        return this;
+    }
+
+    /**
+     * Reads the parameters of the message on first use. {@link Message#getParameters()} copies them for reusable
+     * messages (the garbage-free path, where the event is a MutableLogEvent), so their array is borrowed instead: the
+     * message gets the swap buffer in exchange, and its own array back right away.
+     */
+    private void fetchParameters() {
+        if (parametersStamp == generation) return;
+        if (message instanceof ReusableMessage reusable) {
+            int count = reusable.getParameterCount();
+            if (swapBuffer.length < count) {
+                swapBuffer = new Object[count];
+            }
+            Object[] parameters = reusable.swapParameters(swapBuffer);
+            // Messages that can't lend their array copy into the buffer and return it, handing it back is harmless then
+            swapBuffer = reusable.swapParameters(parameters);
+            setParameters(parameters, parameters != null ? count : 0);
+        } else {
+            Object[] parameters = message != null ? message.getParameters() : null;
+            setParameters(parameters, parameters != null ? parameters.length : 0);
+        }
+    }
+
+    public String getLoggerName() {
+        return loggerName;
+    }
+
+    public Level getLevel() {
+        return level;
+    }
+
+    /**
+     * The throwable of the event, or of the message if there is no event yet. Null for recorded events.
+     */
+    public Throwable getThrowable() {
+        Throwable thrown = event != null ? event.getThrown() : null;
+        if (thrown != null) return thrown;
+        return message != null ? message.getThrowable() : null;
+    }
+
+    /**
+     * The memoized cause chain and stack frames of the throwable, null if there is none.
+     */
+    public ThrowableInfo getThrowableInfo() {
+        if (throwableStamp != generation) {
+            throwable = ThrowableInfo.of(getThrowable());
+            throwableStamp = generation;
+        }
+        return throwable;
+    }
+
+    public String getFormat() {
+        return format;
+    }
+
+    public int getParameterCount() {
+        fetchParameters();
+        return parameterCount;
+    }
+
+    /**
+     * The parameter at the given index, which has to be below {@link #getParameterCount()}.
+     */
+    public Object getParameter(int index) {
+        fetchParameters();
+        return parameters[index];
+    }
+
+    /**
+     * Whether this is a recorded event, whose parameters are their string values.
+     */
+    public boolean isRecorded() {
+        return recorded;
+    }
+
+    /**
+     * The string value of a parameter cut to maxLength chars, null if there is no such parameter. Rendered at most once
+     * per event and parameter, unless a later caller needs more of it than was rendered, see
+     * {@link ParameterMatcher#render(Object, int)}.
+     */
+    public String getParameterValue(int index, int maxLength) {
+        if (index < 0 || index >= getParameterCount()) return null;
+        if (index >= renders.length) {
+            int length = Math.max(index + 1, renders.length * 2);
+            renderStamps = Arrays.copyOf(renderStamps, length);
+            renders = Arrays.copyOf(renders, length);
+            renderLimits = Arrays.copyOf(renderLimits, length);
+        }
+        String render = renders[index];
+        // A rendering shorter than its limit is complete
+        if (renderStamps[index] != generation || (render.length() >= renderLimits[index] && renderLimits[index] < maxLength)) {
+            render = ParameterMatcher.render(parameters[index], maxLength);
+            renders[index] = render;
+            renderLimits[index] = maxLength;
+            renderStamps[index] = generation;
+        }
+        return render.length() <= maxLength ? render : render.substring(0, maxLength);
+    }
+
+    /**
+     * The value of a field, null only for {@link #nullable(int)} fields.
+     */
+    public String get(int field) {
+        ensureCapacity(field);
+        if (stamps[field] != generation) {
+            values[field] = compute(field);
+            stamps[field] = generation;
+        }
+        return values[field];
+    }
+
+    /**
+     * The literals of the given matcher found in a field, as a bitset indexed by literal id.
+     */
+    long[] getLiteralHits(LiteralMatcher matcher, int field, int literalCount) {
+        ensureCapacity(field);
+        if (literalStamps[field] != generation || literalMatchers[field] != matcher) {
+            long[] hits = literalHits[field];
+            int words = (literalCount + 63) >>> 6;
+            if (hits == null || hits.length < words) {
+                hits = literalHits[field] = new long[words];
+            } else {
+                Arrays.fill(hits, 0L);
+            }
+            matcher.scan(this, field, hits);
+            literalMatchers[field] = matcher;
+            literalStamps[field] = generation;
+        }
+        return literalHits[field];
+    }
+
+    private String compute(int field) {
+        if (recorded) {
+            return switch (field) {
+                case LOGGER_NAME -> loggerName;
+                case THREAD_NAME -> threadName;
+                case THROWABLE_CLASS -> throwable != null ? throwable.className : null;
+                case MESSAGE -> formattedMessage;
+                case FORMAT -> format;
+                case ROOT_CAUSE_MESSAGE -> throwable != null ? throwable.rootCauseMessage : null;
+                default -> {
+                    int index = (field - PARAMETERS) / 2;
+                    if (index >= parameterCount) yield null;
+                    yield (field - PARAMETERS) % 2 == 0 ? index < parameterClasses.length ? parameterClasses[index] : null : (String) parameters[index];
+                }
+            };
+        }
+        return switch (field) {
+            case LOGGER_NAME -> loggerName;
+            case THREAD_NAME -> event != null ? event.getThreadName() : Thread.currentThread().getName();
+            case THROWABLE_CLASS -> {
+                ThrowableInfo throwable = getThrowableInfo();
+                yield throwable != null ? throwable.className : null;
+            }
+            case MESSAGE -> message != null ? message.getFormattedMessage() : ParameterizedMessage.format(format, parameters);
+            case FORMAT -> format;
+            case ROOT_CAUSE_MESSAGE -> {
+                ThrowableInfo throwable = getThrowableInfo();
+                yield throwable != null ? throwable.rootCauseMessage : null;
+            }
+            default -> {
+                int index = (field - PARAMETERS) / 2;
+                if (index >= getParameterCount()) yield null;
+                Object parameter = parameters[index];
+                yield (field - PARAMETERS) % 2 == 0 ? parameter != null ? parameter.getClass().getName() : "null" : Objects.toString(parameter);
+            }
+        };
+    }
+
+    private void ensureCapacity(int field) {
+        if (field < values.length) return;
+        int length = Math.max(field + 1, values.length * 2);
+        stamps = Arrays.copyOf(stamps, length);
+        values = Arrays.copyOf(values, length);
+        literalStamps = Arrays.copyOf(literalStamps, length);
+        literalMatchers = Arrays.copyOf(literalMatchers, length);
+        literalHits = Arrays.copyOf(literalHits, length);
+    }
+}
@@ -0,0 +1,170 @@
+package de.nick1st.logging.filter;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.beans.ConstructorProperties;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * The global counters of the filter, the hit rate of its decision cache and the {@link RuleMetrics} of the active
+ * rules. Exposed over JMX and written to a JSON stats file, see {@link Config#metrics}.
+ * <p>
+ * An event counts as seen once: events denied before log4j created them are counted by the pre-event check, all
+ * others when they reach the filter as a {@link org.apache.logging.log4j.core.LogEvent}.
+ */
+public class FilterMetrics implements FilterMetricsMXBean {
+    public static final String OBJECT_NAME = "de.nick1st.logging.filter:type=FilterMetrics";
+    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
+
+    final LongAdder seen = new LongAdder();
+    final LongAdder denied = new LongAdder();
+    private final Supplier<RuleSet> ruleSet;
+    private ObjectName registeredName;
+
+    public FilterMetrics(Supplier<RuleSet> ruleSet) {
+        this.ruleSet = ruleSet;
+    }
+
+    @Override
+    public long getEventsSeen() {
+        return seen.sum();
+    }
+
+    @Override
+    public long getEventsDenied() {
+        return denied.sum();
+    }
+
+    @Override
+    public long getEventsPassed() {
+        return Math.max(0, getEventsSeen() - getEventsDenied());
+    }
+
+    @Override
+    public double getDecisionCacheHitRate() {
+        RuleSet ruleSet = this.ruleSet.get();
+        long hits = ruleSet.decisions.getHits();
+        long total = hits + ruleSet.decisions.getMisses();
+        // During a logging storm the overload rules decide with their own cache
+        if (ruleSet.overload != null) {
+            hits += ruleSet.overload.decisions.getHits();
+            total += ruleSet.overload.decisions.getHits() + ruleSet.overload.decisions.getMisses();
+        }
+        return total == 0 ? 0 : hits / (double) total;
+    }
+
+    @Override
+    public List<RuleStats> getRules() {
+        RuleSet ruleSet = this.ruleSet.get();
+        List<RuleStats> rules = new ArrayList<>();
+        // The overload rules too, they are numbered after the normal rules
+        for (FilterPredicate filter : Filter.byNumber(ruleSet)) {
+            RuleMetrics metrics = filter.metrics;
+            rules.add(new RuleStats(Filter.number(ruleSet, filter), metrics.matches.sum(), metrics.evaluations.sum(), metrics.getMeanNanos()));
+        }
+        return rules;
+    }
+
+    @Override
+    public void reset() {
+        seen.reset();
+        denied.reset();
+        RuleSet ruleSet = this.ruleSet.get();
+        ruleSet.decisions.resetCounts();
+        if (ruleSet.overload != null) ruleSet.overload.decisions.resetCounts();
+        Filter.byNumber(ruleSet).forEach(filter -> filter.metrics.reset());
+    }
+
+    public synchronized void register() {
+        if (registeredName != null) return;
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(this, name);
+                registeredName = name;
+            }
+        } catch (JMException | RuntimeException e) {
+            Constants.LOG.warn("Couldn't register the filter metrics MBean!", e);
+        }
+    }
+
+    public synchronized void unregister() {
+        if (registeredName == null) return;
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(registeredName);
+        } catch (JMException e) {
+            Constants.LOG.warn("Couldn't unregister the filter metrics MBean!", e);
+        }
+        registeredName = null;
+    }
+
+    /**
+     * Writes the current numbers to a JSON file, the file is replaced atomically so readers never see half of it.
+     */
+    public void write(Path file) {
+        Stats stats = new Stats(getEventsSeen(), getEventsDenied(), getEventsPassed(), getDecisionCacheHitRate(), getRules());
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            Files.writeString(temp, GSON.toJson(stats));
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Constants.LOG.warn("Couldn't write filter stats to {}: {}", file, e.toString());
+        }
+    }
+
+    private record Stats(long eventsSeen, long eventsDenied, long eventsPassed, double decisionCacheHitRate, List<RuleStats> rules) {}
+
+    /**
+     * The numbers of one rule, {@link #getRule()} is its position in the config, starting at 1.
+     */
+    public static class RuleStats {
+        private final int rule;
+        private final long matches;
+        private final long evaluations;
+        private final double meanNanos;
+        // Estimated total time spent evaluating the rule
+        private final double totalMillis;
+
+        @ConstructorProperties({"rule", "matches", "evaluations", "meanNanos"})
+        public RuleStats(int rule, long matches, long evaluations, double meanNanos) {
+            this.rule = rule;
+            this.matches = matches;
+            this.evaluations = evaluations;
+            this.meanNanos = meanNanos;
+            this.totalMillis = evaluations * meanNanos / 1_000_000;
+        }
+
+        public int getRule() {
+            return rule;
+        }
+
+        public long getMatches() {
+            return matches;
+        }
+
+        public long getEvaluations() {
+            return evaluations;
+        }
+
+        public double getMeanNanos() {
+            return meanNanos;
+        }
+
+        public double getTotalMillis() {
+            return totalMillis;
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package de.nick1st.logging.filter;
+
+import java.util.List;
+
+/**
+ * The JMX view of {@link FilterMetrics}, registered as {@value FilterMetrics#OBJECT_NAME} while metrics are on.
+ */
+public interface FilterMetricsMXBean {
+    long getEventsSeen();
+
+    long getEventsDenied();
+
+    long getEventsPassed();
+
+    /**
+     * The share of events decided by the decision cache, 0 while it isn't used, see {@link DecisionCache}.
+     */
+    double getDecisionCacheHitRate();
+
+    List<FilterMetrics.RuleStats> getRules();
+
+    void reset();
+}
@@ -1,35 +1,138 @@
 package de.nick1st.logging.filter;
 
-import org.apache.logging.log4j.core.LogEvent;
-
+import java.lang.invoke.MethodHandle;
 import java.util.*;
-import java.util.function.BiFunction;
-import java.util.function.Function;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntUnaryOperator;
 import java.util.function.Predicate;
+import java.util.regex.Pattern;
 
 import static de.nick1st.logging.filter.Config.LogLevel.convert;
 
-public class FilterPredicate implements Predicate<LogEvent> {
-    private final AndPredicate<LogEvent> predicate = new AndPredicate<>();
+public class FilterPredicate implements Predicate<FilterEvent> {
+    /**
+     * The conditions of a rule, in the order they are evaluated if no other order is given.
+     */
+    public enum Condition {
+        LEVEL,
+        LOGGER_NAME,
+        THREAD_NAME,
+        THROWABLE_CLASS,
+        CAUSE_CLASS,
+        ROOT_CAUSE_MESSAGE,
+        STACK_FRAME,
+        MESSAGE,
+        FORMAT_MESSAGE,
+        PARAMETER_CLASSES,
+        PARAMETERS,
+        PARAMETER_VALUES
+    }
+
+    public static final List<Condition> DEFAULT_ORDER = List.of(Condition.values());
+
+    private final AndPredicate<FilterEvent> predicate = new AndPredicate<>();
+    private final MethodHandle compiled;
     public final boolean logFiltered;
+    /**
+     * Whether this rule can be decided from the logger call alone, before log4j creates and formats an event.
+     */
+    public final boolean preEvent;
+    /**
+     * Whether this rule only reads logger name, level, thread name and format string, see {@link DecisionCache}.
+     */
+    public final boolean staticOnly;
+    /**
+     * Decides which of the matched events are denied, null if all of them are.
+     */
+    public final Throttle throttle;
+
+    private final LiteralMatcher literals;
+    public final Config.FilterRule rule;
+
+    // Only counted in adaptive mode, see Filter#reorder
+    public final LongAdder hits = new LongAdder();
+    public final LongAdder misses = new LongAdder();
+    public final RuleMetrics metrics = new RuleMetrics();
+    /**
+     * Events denied by this rule per {@link Config.LogLevel}, only counted if {@link #logFiltered}, see
+     * {@link Filter#reportFirings()}.
+     */
+    public final LongAdder[] firings;
+    // Decayed counts, only touched while reordering
+    double hitScore = 0;
+    double evaluationScore = 0;
 
     public FilterPredicate(Config.FilterRule rule) {
+        this(rule, null, Config.RuleBackend.LAMBDA);
+    }
+
+    /**
+     * @param literals the literal matcher shared by the whole rule set, it has to be built once all rules are created.
+     *                 If null, the rule gets its own one.
+     * @param backend  how the rule is evaluated, the lambda chain is always built as the fallback
+     */
+    public FilterPredicate(Config.FilterRule rule, LiteralMatcher literals, Config.RuleBackend backend) {
+        this(rule, literals, backend, DEFAULT_ORDER);
+    }
+
+    /**
+     * @param order the order the conditions of the rule are evaluated in, see {@link RuleOptimizer}
+     */
+    public FilterPredicate(Config.FilterRule rule, LiteralMatcher literals, Config.RuleBackend backend, List<Condition> order) {
+        this.rule = rule;
+        this.literals = literals != null ? literals : new LiteralMatcher();
         predicate.add(event -> event.getLoggerName() != Constants.MOD_NAME); // Guard against processing our own logging
-        predicate.add(createLevelPredicate(rule));
-        predicate.add(createStringMatchPredicates(rule.loggerName, LogEvent::getLoggerName, false));
-        predicate.add(createStringMatchPredicates(rule.threadName, LogEvent::getThreadName, false));
-        predicate.add(createStringMatchPredicates(rule.throwableClass, event -> event.getMessage().getThrowable().getClass().getName(), false));
-        predicate.add(createStringMatchPredicates(rule.message, event -> event.getMessage().getFormattedMessage(), false));
-        predicate.add(createStringMatchPredicates(rule.formatMessage, event -> event.getMessage().getFormat(), false));
-        predicate.add(createStringMapMatchPredicate(rule.parameterClasses, (event, integer) -> event.getMessage().getParameters()[integer].getClass().getName()));
-        predicate.add(createStringMapMatchPredicate(rule.parameterValues, (event, integer) -> Objects.toString(event.getMessage().getParameters()[integer])));
+        for (Condition condition : order) {
+            predicate.add(switch (condition) {
+                case LEVEL -> createLevelPredicate(rule);
+                case LOGGER_NAME -> createStringMatchPredicates(rule.loggerName, FilterEvent.LOGGER_NAME, false);
+                case THREAD_NAME -> createStringMatchPredicates(rule.threadName, FilterEvent.THREAD_NAME, false);
+                case THROWABLE_CLASS -> createStringMatchPredicates(rule.throwableClass, FilterEvent.THROWABLE_CLASS, false);
+                case CAUSE_CLASS -> createCauseClassPredicate(rule.causeClass);
+                case ROOT_CAUSE_MESSAGE -> createStringMatchPredicates(rule.rootCauseMessage, FilterEvent.ROOT_CAUSE_MESSAGE, false);
+                case STACK_FRAME -> createStackFramePredicate(rule.stackFrame, rule.stackFrameDepth);
+                case MESSAGE -> createStringMatchPredicates(rule.message, FilterEvent.MESSAGE, false);
+                case FORMAT_MESSAGE -> createStringMatchPredicates(rule.formatMessage, FilterEvent.FORMAT, false);
+                case PARAMETER_CLASSES -> createStringMapMatchPredicate(rule.parameterClasses, FilterEvent::parameterClass);
+                case PARAMETERS -> createParameterPredicate(rule.parameters);
+                case PARAMETER_VALUES -> createStringMapMatchPredicate(rule.parameterValues, FilterEvent::parameterValue);
+            });
+        }
+        compiled = backend == Config.RuleBackend.METHOD_HANDLE ? compile(rule, this.literals, order) : null;
         logFiltered = rule.logRuleFiring;
+        firings = new LongAdder[logFiltered ? Config.LogLevel.values().length : 0];
+        Arrays.setAll(firings, level -> new LongAdder());
+        throttle = Throttle.of(rule);
+        // Throttling rules are stateful: they are only evaluated once per event, on the LogEvent, and are never cached
+        preEvent = throttle == null && rule.throwableClass.isEmpty() && rule.causeClass.isEmpty() && rule.rootCauseMessage.isEmpty()
+                && rule.stackFrame.isEmpty() && rule.message.isEmpty() && rule.parameterValues.isEmpty()
+                && rule.parameters.stream().allMatch(map -> map.values().stream().allMatch(parameter -> parameter.value.isEmpty()));
+        staticOnly = preEvent && rule.parameterClasses.isEmpty() && rule.parameters.isEmpty();
+        if (literals == null) {
+            this.literals.build();
+        }
     }
 
-    private Predicate<LogEvent> createLevelPredicate(Config.FilterRule rule) {
-        AndPredicate<LogEvent> levelPredicate = new AndPredicate<>();
+    /**
+     * The literal matcher this rule registered its literals in.
+     */
+    LiteralMatcher getLiterals() {
+        return literals;
+    }
+
+    private static MethodHandle compile(Config.FilterRule rule, LiteralMatcher literals, List<Condition> order) {
+        try {
+            return RuleCompiler.compile(rule, literals, order);
+        } catch (RuntimeException | LinkageError e) {
+            Constants.LOG.warn("Couldn't compile rule, falling back to lambdas!", e);
+            return null;
+        }
+    }
+
+    private Predicate<FilterEvent> createLevelPredicate(Config.FilterRule rule) {
+        AndPredicate<FilterEvent> levelPredicate = new AndPredicate<>();
         rule.level.forEach(logLevelComparable -> {
-            Predicate<LogEvent> p = switch (logLevelComparable.relation) {
+            Predicate<FilterEvent> p = switch (logLevelComparable.relation) {
                 case EQUAL -> event -> convert(event.getLevel()).ordinal() == logLevelComparable.value.ordinal();
                 case LESS_THAN -> event -> convert(event.getLevel()).ordinal() < logLevelComparable.value.ordinal();
                 case LESS_THAN_OR_EQUAL ->
@@ -45,48 +148,128 @@ public class FilterPredicate implements Predicate<LogEvent> {
         return levelPredicate;
     }
 
-    private Predicate<LogEvent> createStringMatchPredicates(List<Config.StringComparable> stringRules, Function<LogEvent, String> logEventStringFunction, boolean reentry) {
-        OrPredicate<LogEvent> stringMatchPredicate = new OrPredicate<>();
-        stringRules.forEach(stringComparable -> stringMatchPredicate.add(createStringMatchPredicate(stringComparable, logEventStringFunction, reentry)));
+    private Predicate<FilterEvent> createStringMatchPredicates(List<Config.StringComparable> stringRules, int field, boolean reentry) {
+        OrPredicate<FilterEvent> stringMatchPredicate = new OrPredicate<>();
+        stringRules.forEach(stringComparable -> stringMatchPredicate.add(createStringMatchPredicate(stringComparable, field, reentry)));
         return stringMatchPredicate;
     }
 
-    private Predicate<LogEvent> createStringMatchPredicate(Config.StringComparable stringComparable, Function<LogEvent, String> logEventStringFunction, boolean reentry) {
-        Predicate<LogEvent> p = switch (stringComparable.relation) {
-            case STARTS_WITH -> event -> logEventStringFunction.apply(event).startsWith(stringComparable.value);
-            case STARTS_WITH_IGNORE_CASE ->
-                    event -> logEventStringFunction.apply(event).toLowerCase(Locale.ROOT).startsWith(stringComparable.value.toLowerCase(Locale.ROOT));
-            case ENDS_WITH -> event -> logEventStringFunction.apply(event).endsWith(stringComparable.value);
-            case ENDS_WITH_IGNORE_CASE ->
-                    event -> logEventStringFunction.apply(event).toLowerCase(Locale.ROOT).endsWith(stringComparable.value.toLowerCase(Locale.ROOT));
-            case CONTAINS -> event -> logEventStringFunction.apply(event).contains(stringComparable.value);
-            case CONTAINS_IGNORE_CASE ->
-                    event -> logEventStringFunction.apply(event).toLowerCase(Locale.ROOT).contains(stringComparable.value.toLowerCase(Locale.ROOT));
-            case MATCH -> event -> logEventStringFunction.apply(event).equals(stringComparable.value);
-            case MATCH_IGNORE_CASE ->
-                    event -> logEventStringFunction.apply(event).equalsIgnoreCase(stringComparable.value);
-            case REGEX ->
-                    event -> logEventStringFunction.apply(event).matches(stringComparable.value); // TODO This can be optimized
+    private Predicate<FilterEvent> createStringMatchPredicate(Config.StringComparable stringComparable, int field, boolean reentry) {
+        String value = stringComparable.value;
+        Predicate<FilterEvent> p = switch (stringComparable.relation) {
+            case STARTS_WITH, STARTS_WITH_IGNORE_CASE, ENDS_WITH, ENDS_WITH_IGNORE_CASE, CONTAINS, CONTAINS_IGNORE_CASE -> {
+                int id = literals.add(field, stringComparable.relation, value);
+                yield event -> literals.test(event, field, id);
+            }
+            case MATCH -> event -> event.get(field).equals(value);
+            case MATCH_IGNORE_CASE -> event -> event.get(field).equalsIgnoreCase(value);
+            case REGEX -> {
+                Pattern pattern = PatternCache.get(value);
+                yield event -> pattern.matcher(event.get(field)).matches();
+            }
+            case FIND -> {
+                Pattern pattern = PatternCache.get(value);
+                yield event -> pattern.matcher(event.get(field)).find();
+            }
             case null -> throw new IllegalStateException("Unexpected value: " + null);
         };
         if (!reentry && !stringComparable.whitelist.isEmpty()) {
-            p = p.and(createStringMatchPredicates(stringComparable.whitelist, logEventStringFunction, true).negate());
+            p = p.and(createStringMatchPredicates(stringComparable.whitelist, field, true).negate());
+        }
+        if (!reentry && FilterEvent.nullable(field)) {
+            Predicate<FilterEvent> matches = p;
+            p = event -> event.get(field) != null && matches.test(event);
         }
         return p;
     }
 
-    private Predicate<LogEvent> createStringMapMatchPredicate(List<Map<Integer, Config.StringComparable>> stringMapRules, BiFunction<LogEvent, Integer, String> logEventStringFunction) {
-        OrPredicate<LogEvent> stringMapMatchPredicate = new OrPredicate<>();
+    private static Predicate<FilterEvent> createCauseClassPredicate(List<Config.StringComparable> stringRules) {
+        if (stringRules.isEmpty()) return event -> true;
+        Predicate<String> predicate = createValuePredicate(stringRules, false);
+        return event -> {
+            ThrowableInfo throwable = event.getThrowableInfo();
+            return throwable != null && throwable.anyCauseClass(predicate);
+        };
+    }
+
+    private static Predicate<FilterEvent> createStackFramePredicate(List<Config.StringComparable> stringRules, int depth) {
+        if (stringRules.isEmpty()) return event -> true;
+        Predicate<String> predicate = createValuePredicate(stringRules, false);
+        return event -> {
+            ThrowableInfo throwable = event.getThrowableInfo();
+            return throwable != null && throwable.anyFrame(predicate, depth);
+        };
+    }
+
+    /**
+     * Tests single strings instead of an event field, for the conditions that match any of several values, like the
+     * classes of a cause chain. These don't use the literal matcher, it only caches one result per event and field.
+     */
+    static Predicate<String> createValuePredicate(List<Config.StringComparable> stringRules, boolean reentry) {
+        OrPredicate<String> valuePredicate = new OrPredicate<>();
+        stringRules.forEach(stringComparable -> {
+            String value = stringComparable.value;
+            Predicate<String> p = switch (stringComparable.relation) {
+                case STARTS_WITH -> text -> text.startsWith(value);
+                case STARTS_WITH_IGNORE_CASE -> text -> text.regionMatches(true, 0, value, 0, value.length());
+                case ENDS_WITH -> text -> text.endsWith(value);
+                case ENDS_WITH_IGNORE_CASE -> text -> text.regionMatches(true, text.length() - value.length(), value, 0, value.length());
+                case CONTAINS -> text -> text.contains(value);
+                case CONTAINS_IGNORE_CASE -> {
+                    String folded = LiteralMatcher.fold(value);
+                    yield text -> LiteralMatcher.containsIgnoreCase(text, folded);
+                }
+                case MATCH -> value::equals;
+                case MATCH_IGNORE_CASE -> value::equalsIgnoreCase;
+                case REGEX -> {
+                    Pattern pattern = PatternCache.get(value);
+                    yield text -> pattern.matcher(text).matches();
+                }
+                case FIND -> {
+                    Pattern pattern = PatternCache.get(value);
+                    yield text -> pattern.matcher(text).find();
+                }
+                case null -> throw new IllegalStateException("Unexpected value: " + null);
+            };
+            if (!reentry && !stringComparable.whitelist.isEmpty()) {
+                p = p.and(createValuePredicate(stringComparable.whitelist, true).negate());
+            }
+            valuePredicate.add(p);
+        });
+        return valuePredicate;
+    }
+
+    private Predicate<FilterEvent> createStringMapMatchPredicate(List<Map<Integer, Config.StringComparable>> stringMapRules, IntUnaryOperator fieldOfParameter) {
+        OrPredicate<FilterEvent> stringMapMatchPredicate = new OrPredicate<>();
         stringMapRules.forEach(stringMapRule -> {
-            AndPredicate<LogEvent> mapMatchPredicate = new AndPredicate<>();
-            stringMapRule.forEach((key, value) -> mapMatchPredicate.add(createStringMatchPredicate(value, event -> logEventStringFunction.apply(event, key), false)));
+            AndPredicate<FilterEvent> mapMatchPredicate = new AndPredicate<>();
+            stringMapRule.forEach((key, value) -> mapMatchPredicate.add(createStringMatchPredicate(value, fieldOfParameter.applyAsInt(key), false)));
             stringMapMatchPredicate.add(mapMatchPredicate);
         });
         return stringMapMatchPredicate;
     }
 
+    private static Predicate<FilterEvent> createParameterPredicate(List<Map<Integer, Config.ParameterComparable>> parameterRules) {
+        OrPredicate<FilterEvent> parameterPredicate = new OrPredicate<>();
+        parameterRules.forEach(parameterRule -> {
+            AndPredicate<FilterEvent> mapMatchPredicate = new AndPredicate<>();
+            parameterRule.forEach((index, comparable) -> mapMatchPredicate.add(new ParameterMatcher(index, comparable)));
+            parameterPredicate.add(mapMatchPredicate);
+        });
+        return parameterPredicate;
+    }
+
     @Override
-    public boolean test(LogEvent event) {
+    public boolean test(FilterEvent event) {
+        if (compiled != null) {
+            try {
+                return (boolean) compiled.invokeExact(event);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable t) {
+                throw new IllegalStateException(t);
+            }
+        }
         return predicate.test(event);
     }
 
@@ -0,0 +1,150 @@
+package de.nick1st.logging.filter;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.LoggerContext;
+import org.apache.logging.log4j.core.config.AppenderRef;
+import org.apache.logging.log4j.core.config.Configuration;
+import org.apache.logging.log4j.core.config.LoggerConfig;
+
+import java.util.*;
+
+/**
+ * Pushes rules that deny every event below some level for a logger prefix down into the log4j logger levels, so
+ * e.g. {@code isInfoEnabled()} already fails at the call site and the call never reaches the filter.
+ * <p>
+ * A rule qualifies if it only has level and loggerName conditions, its loggerName conditions are STARTS_WITH without
+ * whitelist, its levels form a "below X" range, it denies every event it matches (action DENY) for every appender (no
+ * targets) and it doesn't log its firing (pushed down events never reach the filter). MATCH isn't pushed down: a LoggerConfig also applies to all child
+ * loggers, which a MATCH rule doesn't deny.
+ * For the same reason a STARTS_WITH value ending with '.' isn't pushed down either.
+ * <p>
+ * A rule after a throttling rule (DEDUPLICATE, RATE_LIMIT) whose loggers may overlap its own isn't pushed down, the
+ * events it denies count towards the throttle first. Neither is a prefix covering our own logger, which reports
+ * everything the filter does.
+ * <p>
+ * The original levels are remembered and restored before the next pushdown, LoggerConfigs created here are removed.
+ */
+public class LevelPushdown {
+    private static final Level[] THRESHOLDS = {Level.TRACE, Level.TRACE, Level.DEBUG, Level.INFO, Level.WARN, Level.ERROR, Level.FATAL, Level.OFF};
+
+    private final LoggerContext context;
+    private Configuration configuration;
+    // Original level per changed logger config, an empty optional means we created it
+    private final Map<String, Optional<Level>> originalLevels = new HashMap<>();
+
+    public LevelPushdown(LoggerContext context) {
+        this.context = context;
+    }
+
+    public synchronized void apply(List<FilterPredicate> filters) {
+        restore();
+        Map<String, Level> thresholds = new TreeMap<>();
+        List<Config.FilterRule> throttling = new ArrayList<>();
+        for (FilterPredicate filter : filters) {
+            if (filter.throttle != null) {
+                throttling.add(filter.rule);
+                continue;
+            }
+            Level threshold = threshold(filter.rule);
+            if (threshold == null || filter.rule.loggerName.stream().anyMatch(loggerName -> Constants.MOD_NAME.startsWith(loggerName.value)
+                    || throttling.stream().anyMatch(throttle -> overlaps(throttle, loggerName.value)))) {
+                continue;
+            }
+            for (Config.StringComparable loggerName : filter.rule.loggerName) {
+                thresholds.merge(loggerName.value, threshold, (a, b) -> a.isMoreSpecificThan(b) ? a : b);
+            }
+        }
+        if (thresholds.isEmpty()) return;
+
+        configuration = context.getConfiguration();
+        List<String> report = new ArrayList<>();
+        thresholds.forEach((name, threshold) -> {
+            LoggerConfig current = configuration.getLoggerConfig(name);
+            // Never enable anything the configuration disabled
+            if (current.getLevel() != null && current.getLevel().isMoreSpecificThan(threshold)) return;
+            if (current.getName().equals(name)) {
+                originalLevels.put(name, Optional.ofNullable(current.getLevel()));
+                current.setLevel(threshold);
+            } else {
+                originalLevels.put(name, Optional.empty());
+                configuration.addLogger(name, LoggerConfig.newBuilder()
+                        .withLoggerName(name)
+                        .withLevel(threshold)
+                        .withAdditivity(true)
+                        .withRefs(new AppenderRef[0])
+                        .withConfig(configuration)
+                        .build());
+            }
+            report.add(name + " -> " + threshold);
+        });
+        context.updateLoggers();
+        if (!report.isEmpty()) {
+            Constants.LOG.info("Pushed rules down into logger levels: {}", String.join(", ", report));
+        }
+    }
+
+    public synchronized void restore() {
+        if (originalLevels.isEmpty()) return;
+        // After a log4j reconfiguration our changes are gone anyway
+        if (context.getConfiguration() == configuration) {
+            originalLevels.forEach((name, level) -> {
+                if (level.isEmpty()) {
+                    configuration.removeLogger(name);
+                } else if (configuration.getLoggers().containsKey(name)) {
+                    configuration.getLoggers().get(name).setLevel(level.get());
+                }
+            });
+            context.updateLoggers();
+        }
+        originalLevels.clear();
+        configuration = null;
+    }
+
+    /**
+     * Whether the rule may match an event of a logger starting with the given prefix. Only MATCH and STARTS_WITH
+     * conditions can be told apart from the prefix, a whitelist only narrows them down.
+     */
+    private static boolean overlaps(Config.FilterRule rule, String prefix) {
+        if (rule.loggerName.isEmpty()) return true;
+        for (Config.StringComparable loggerName : rule.loggerName) {
+            String value = loggerName.value;
+            boolean overlaps = switch (loggerName.relation) {
+                case MATCH -> value == null || value.startsWith(prefix);
+                case STARTS_WITH -> value == null || value.startsWith(prefix) || prefix.startsWith(value);
+                case MATCH_IGNORE_CASE -> value == null || value.regionMatches(true, 0, prefix, 0, prefix.length());
+                case STARTS_WITH_IGNORE_CASE -> value == null || value.regionMatches(true, 0, prefix, 0, Math.min(value.length(), prefix.length()));
+                case null, default -> true;
+            };
+            if (overlaps) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the level events of the rule's loggers have to reach to not be denied, null if it can't be pushed down
+     */
+    private static Level threshold(Config.FilterRule rule) {
+        if (rule.logRuleFiring || rule.action != Config.Action.DENY || !rule.targets.isEmpty() || rule.loggerName.isEmpty() || !rule.threadName.isEmpty() || !rule.throwableClass.isEmpty()
+                || !rule.causeClass.isEmpty() || !rule.rootCauseMessage.isEmpty() || !rule.stackFrame.isEmpty()
+                || !rule.message.isEmpty() || !rule.formatMessage.isEmpty() || !rule.parameterClasses.isEmpty()
+                || !rule.parameterValues.isEmpty() || !rule.parameters.isEmpty()) {
+            return null;
+        }
+        for (Config.StringComparable loggerName : rule.loggerName) {
+            if (loggerName.relation != Config.StringComparable.Relation.STARTS_WITH || !loggerName.whitelist.isEmpty()
+                    || loggerName.value == null || loggerName.value.isEmpty() || loggerName.value.endsWith(".")) {
+                return null;
+            }
+        }
+        // ALL and NONE (custom levels) are ignored, TRACE up to some level has to be denied and everything above allowed
+        int mask = RuleIndex.levelMask(rule.level);
+        int highest = Config.LogLevel.TRACE.ordinal() - 1;
+        while (highest + 1 <= Config.LogLevel.FATAL.ordinal() && (mask & (1 << (highest + 1))) != 0) {
+            highest++;
+        }
+        for (int level = highest + 1; level <= Config.LogLevel.FATAL.ordinal(); level++) {
+            if ((mask & (1 << level)) != 0) return null;
+        }
+        return highest < Config.LogLevel.TRACE.ordinal() ? null : THRESHOLDS[highest + 1];
+    }
+}
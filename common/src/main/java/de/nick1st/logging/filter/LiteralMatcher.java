@@ -0,0 +1,293 @@
+package de.nick1st.logging.filter;
+
+import java.util.*;
+
+/**
+ * Answers the CONTAINS, STARTS_WITH and ENDS_WITH checks (and their IGNORE_CASE variants) of a whole rule set.
+ * <p>
+ * All literals used on one field are compiled into an Aho-Corasick automaton (one for the exact and one for the
+ * case-insensitive literals), so a single pass over the field answers every literal check of every rule. The result is
+ * cached in the {@link FilterEvent}, so the cost per event no longer grows with the number of literals.
+ * Fields with only a few literals are checked directly, as that is cheaper than a pass over the whole string.
+ */
+public class LiteralMatcher {
+    private static final int MIN_AUTOMATON_LITERALS = 4;
+
+    private final Map<Integer, FieldMatcher> fields = new HashMap<>();
+    private boolean built = false;
+
+    /**
+     * Registers a literal check and returns its id, checks with the same field, relation and value share an id.
+     */
+    public int add(int field, Config.StringComparable.Relation relation, String value) {
+        if (built) throw new IllegalStateException("Literal matcher is already built");
+        return fields.computeIfAbsent(field, f -> new FieldMatcher()).add(relation, value);
+    }
+
+    /**
+     * Compiles the automatons, must be called after all literals were added and before the first test.
+     */
+    public LiteralMatcher build() {
+        fields.values().forEach(FieldMatcher::build);
+        built = true;
+        return this;
+    }
+
+    public boolean test(FilterEvent event, int field, int id) {
+        FieldMatcher fieldMatcher = fields.get(field);
+        if (fieldMatcher.literals.size() < MIN_AUTOMATON_LITERALS) {
+            return fieldMatcher.literals.get(id).test(event, field);
+        }
+        long[] hits = event.getLiteralHits(this, field, fieldMatcher.literals.size());
+        return (hits[id >>> 6] & (1L << id)) != 0;
+    }
+
+    /**
+     * Fills the hit bitset of a field, called by {@link FilterEvent} once per event and field.
+     */
+    void scan(FilterEvent event, int field, long[] hits) {
+        FieldMatcher fieldMatcher = fields.get(field);
+        if (fieldMatcher.exact != null) {
+            fieldMatcher.exact.scan(event.get(field), hits);
+        }
+        if (fieldMatcher.ignoreCase != null) {
+            fieldMatcher.ignoreCase.scan(event.get(field), hits);
+        }
+    }
+
+    /**
+     * Case folds a rule value once when it is registered, so events can be compared to it without copying them.
+     * Two chars fold to the same char exactly if {@link String#regionMatches(boolean, int, String, int, int)} with
+     * ignoreCase considers them equal.
+     */
+    static String fold(String value) {
+        char[] chars = value.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = fold(chars[i]);
+        }
+        return new String(chars);
+    }
+
+    static char fold(char c) {
+        if (c < 128) {
+            return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+        }
+        return Character.toLowerCase(Character.toUpperCase(c));
+    }
+
+    /**
+     * Allocation free, case-insensitive {@link String#contains(CharSequence)}, the needle has to be folded already.
+     */
+    static boolean containsIgnoreCase(String text, String foldedNeedle) {
+        int length = foldedNeedle.length();
+        if (length == 0) return true;
+        char first = foldedNeedle.charAt(0);
+        for (int i = 0, last = text.length() - length; i <= last; i++) {
+            if (fold(text.charAt(i)) == first && text.regionMatches(true, i + 1, foldedNeedle, 1, length - 1)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private record Literal(Config.StringComparable.Relation relation, String value) {
+        private boolean test(FilterEvent event, int field) {
+            return switch (relation) {
+                case STARTS_WITH -> event.get(field).startsWith(value);
+                case ENDS_WITH -> event.get(field).endsWith(value);
+                case CONTAINS -> event.get(field).contains(value);
+                case STARTS_WITH_IGNORE_CASE -> {
+                    String text = event.get(field);
+                    yield text.regionMatches(true, 0, value, 0, value.length());
+                }
+                case ENDS_WITH_IGNORE_CASE -> {
+                    String text = event.get(field);
+                    yield text.regionMatches(true, text.length() - value.length(), value, 0, value.length());
+                }
+                case CONTAINS_IGNORE_CASE -> containsIgnoreCase(event.get(field), value);
+                default -> throw new IllegalStateException("Unexpected value: " + relation);
+            };
+        }
+
+        private boolean ignoreCase() {
+            return relation == Config.StringComparable.Relation.STARTS_WITH_IGNORE_CASE
+                    || relation == Config.StringComparable.Relation.ENDS_WITH_IGNORE_CASE
+                    || relation == Config.StringComparable.Relation.CONTAINS_IGNORE_CASE;
+        }
+    }
+
+    private static class FieldMatcher {
+        private final List<Literal> literals = new ArrayList<>();
+        private final Map<Literal, Integer> ids = new HashMap<>();
+        private Automaton exact;
+        private Automaton ignoreCase;
+
+        private int add(Config.StringComparable.Relation relation, String value) {
+            Literal literal = new Literal(relation, value);
+            return ids.computeIfAbsent(ignoreCaseLiteral(literal), l -> {
+                literals.add(l);
+                return literals.size() - 1;
+            });
+        }
+
+        private static Literal ignoreCaseLiteral(Literal literal) {
+            return literal.ignoreCase() ? new Literal(literal.relation(), fold(literal.value())) : literal;
+        }
+
+        private void build() {
+            if (literals.size() < MIN_AUTOMATON_LITERALS) return;
+            Automaton exact = new Automaton();
+            Automaton ignoreCase = new Automaton();
+            for (int id = 0; id < literals.size(); id++) {
+                Literal literal = literals.get(id);
+                (literal.ignoreCase() ? ignoreCase : exact).add(literal, id);
+            }
+            this.exact = exact.build(false);
+            this.ignoreCase = ignoreCase.build(true);
+        }
+    }
+
+    /**
+     * A plain Aho-Corasick automaton over chars. Each state keeps its transitions as a sorted char array, outputs are
+     * collected along the dictionary suffix links at build time.
+     */
+    private static class Automaton {
+        private final List<char[]> keys = new ArrayList<>();
+        private final List<int[]> targets = new ArrayList<>();
+        private final List<Node> nodes = new ArrayList<>();
+        private int[] fail;
+        private Output[][] outputs;
+        private boolean empty = true;
+        // Whether the text is case folded while scanning, the literals are already folded when they are added
+        private boolean fold;
+
+        private Automaton() {
+            newState();
+        }
+
+        private int newState() {
+            keys.add(new char[0]);
+            targets.add(new int[0]);
+            nodes.add(new Node());
+            return nodes.size() - 1;
+        }
+
+        private void add(Literal literal, int id) {
+            int state = 0;
+            String value = literal.value();
+            for (int i = 0; i < value.length(); i++) {
+                int next = next(state, value.charAt(i));
+                if (next < 0) {
+                    next = newState();
+                    setNext(state, value.charAt(i), next);
+                }
+                state = next;
+            }
+            Node node = nodes.get(state);
+            node.length = value.length();
+            switch (literal.relation()) {
+                case CONTAINS, CONTAINS_IGNORE_CASE -> node.contains = id;
+                case STARTS_WITH, STARTS_WITH_IGNORE_CASE -> node.startsWith = id;
+                case ENDS_WITH, ENDS_WITH_IGNORE_CASE -> node.endsWith = id;
+                default -> throw new IllegalStateException("Unexpected value: " + literal.relation());
+            }
+            empty = false;
+        }
+
+        private int next(int state, char c) {
+            int index = Arrays.binarySearch(keys.get(state), c);
+            return index >= 0 ? targets.get(state)[index] : -1;
+        }
+
+        private void setNext(int state, char c, int next) {
+            char[] k = keys.get(state);
+            int[] t = targets.get(state);
+            int index = -Arrays.binarySearch(k, c) - 1;
+            char[] newKeys = new char[k.length + 1];
+            int[] newTargets = new int[t.length + 1];
+            System.arraycopy(k, 0, newKeys, 0, index);
+            System.arraycopy(t, 0, newTargets, 0, index);
+            newKeys[index] = c;
+            newTargets[index] = next;
+            System.arraycopy(k, index, newKeys, index + 1, k.length - index);
+            System.arraycopy(t, index, newTargets, index + 1, t.length - index);
+            keys.set(state, newKeys);
+            targets.set(state, newTargets);
+        }
+
+        private Automaton build(boolean fold) {
+            if (empty) return null;
+            this.fold = fold;
+            int size = nodes.size();
+            fail = new int[size];
+            outputs = new Output[size][];
+            outputs[0] = collect(nodes.get(0), new Output[0]);
+            // Breadth first, so the fail state of a state is always finished before the state itself
+            ArrayDeque<Integer> queue = new ArrayDeque<>();
+            for (int child : targets.get(0)) {
+                fail[child] = 0;
+                queue.add(child);
+            }
+            while (!queue.isEmpty()) {
+                int state = queue.poll();
+                outputs[state] = collect(nodes.get(state), outputs[fail[state]]);
+                char[] k = keys.get(state);
+                int[] t = targets.get(state);
+                for (int i = 0; i < k.length; i++) {
+                    int f = fail[state];
+                    while (f != 0 && next(f, k[i]) < 0) {
+                        f = fail[f];
+                    }
+                    int n = next(f, k[i]);
+                    fail[t[i]] = n >= 0 && n != t[i] ? n : 0;
+                    queue.add(t[i]);
+                }
+            }
+            return this;
+        }
+
+        private static Output[] collect(Node node, Output[] inherited) {
+            if (node.length < 0) return inherited;
+            Output[] result = Arrays.copyOf(inherited, inherited.length + 1);
+            result[inherited.length] = new Output(node.length, node.contains, node.startsWith, node.endsWith);
+            return result;
+        }
+
+        private void scan(String text, long[] hits) {
+            int state = 0;
+            int length = text.length();
+            for (int i = 0; i < length; i++) {
+                char c = fold ? fold(text.charAt(i)) : text.charAt(i);
+                int next;
+                while ((next = next(state, c)) < 0 && state != 0) {
+                    state = fail[state];
+                }
+                state = Math.max(next, 0);
+                for (Output output : outputs[state]) {
+                    if (output.contains >= 0) set(hits, output.contains);
+                    if (output.startsWith >= 0 && i + 1 == output.length) set(hits, output.startsWith);
+                    if (output.endsWith >= 0 && i + 1 == length) set(hits, output.endsWith);
+                }
+            }
+            // Empty literals match at every position, including the empty string
+            for (Output output : outputs[0]) {
+                if (output.contains >= 0) set(hits, output.contains);
+                if (output.startsWith >= 0) set(hits, output.startsWith);
+                if (output.endsWith >= 0) set(hits, output.endsWith);
+            }
+        }
+
+        private static void set(long[] hits, int id) {
+            hits[id >>> 6] |= 1L << id;
+        }
+
+        private static class Node {
+            private int length = -1;
+            private int contains = -1;
+            private int startsWith = -1;
+            private int endsWith = -1;
+        }
+
+        private record Output(int length, int contains, int startsWith, int endsWith) {}
+    }
+}
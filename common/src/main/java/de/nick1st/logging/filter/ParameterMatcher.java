@@ -0,0 +1,169 @@
+package de.nick1st.logging.filter;
+
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Checks one parameter of an event against a {@link Config.ParameterComparable}, cheapest checks first, and only
+ * turns the parameter into a string if a value relation is left to decide.
+ * <p>
+ * The class checks are answered once per parameter class and cached in a {@link ClassValue}. instanceOf compares
+ * the names along the superclasses and interfaces, so it works for classes of any class loader without loading the
+ * named class. Number comparisons read the primitive value of the parameter against primitive bounds. The string
+ * value is rendered at most once per event and parameter (see {@link FilterEvent#getParameterValue(int, int)}) and
+ * cut at maxLength; collections and maps are rendered element by element and stop once the text is long enough.
+ */
+public class ParameterMatcher implements Predicate<FilterEvent> {
+    // Whether the toString of a collection or map class is the standard one, which render(Object, int) reproduces
+    private static final ClassValue<Boolean> STANDARD_TO_STRING = new ClassValue<>() {
+        @Override
+        protected Boolean computeValue(Class<?> type) {
+            try {
+                Class<?> declaring = type.getMethod("toString").getDeclaringClass();
+                return declaring == AbstractCollection.class || declaring == AbstractMap.class;
+            } catch (NoSuchMethodException e) {
+                return false;
+            }
+        }
+    };
+
+    private final int index;
+    private final String classIs;
+    private final String instanceOf;
+    // Null if there is no class check
+    private final ClassValue<Boolean> type;
+    private final Config.Comparable.Relation[] numberRelations;
+    private final double[] numberBounds;
+    // Null if there is no value check
+    private final Predicate<String> value;
+    private final int maxLength;
+
+    public ParameterMatcher(int index, Config.ParameterComparable comparable) {
+        this.index = index;
+        this.classIs = comparable.classIs;
+        this.instanceOf = comparable.instanceOf;
+        this.type = classIs == null && instanceOf == null ? null : new ClassValue<>() {
+            @Override
+            protected Boolean computeValue(Class<?> type) {
+                return (classIs == null || type.getName().equals(classIs)) && (instanceOf == null || isSubtype(type, instanceOf));
+            }
+        };
+        this.numberRelations = new Config.Comparable.Relation[comparable.number.size()];
+        this.numberBounds = new double[comparable.number.size()];
+        for (int i = 0; i < numberBounds.length; i++) {
+            Config.Comparable<Double> number = comparable.number.get(i);
+            if (number.relation == null || number.value == null) throw new IllegalStateException("Incomplete number comparison");
+            numberRelations[i] = number.relation;
+            numberBounds[i] = number.value;
+        }
+        this.value = comparable.value.isEmpty() ? null : FilterPredicate.createValuePredicate(comparable.value, false);
+        this.maxLength = Math.max(0, comparable.maxLength);
+    }
+
+    @Override
+    public boolean test(FilterEvent event) {
+        if (index < 0 || index >= event.getParameterCount()) return false;
+        if (event.isRecorded()) return testRecorded(event);
+        Object parameter = event.getParameter(index);
+        if (type != null && (parameter == null || !type.get(parameter.getClass()))) return false;
+        if (numberBounds.length > 0 && !(parameter instanceof Number number && testNumber(number.doubleValue()))) return false;
+        return value == null || value.test(event.getParameterValue(index, maxLength));
+    }
+
+    // Recorded parameters are strings already, the class is only known by name
+    private boolean testRecorded(FilterEvent event) {
+        String className = event.get(FilterEvent.parameterClass(index));
+        if (classIs != null && !classIs.equals(className)) return false;
+        if (instanceOf != null && !instanceOf.equals(className)) return false;
+        String text = event.getParameterValue(index, Integer.MAX_VALUE);
+        if (numberBounds.length > 0) {
+            try {
+                if (text == null || !testNumber(Double.parseDouble(text))) return false;
+            } catch (NumberFormatException e) {
+                return false;
+            }
+        }
+        return value == null || value.test(event.getParameterValue(index, maxLength));
+    }
+
+    private boolean testNumber(double number) {
+        for (int i = 0; i < numberBounds.length; i++) {
+            double bound = numberBounds[i];
+            boolean matches = switch (numberRelations[i]) {
+                case LESS_THAN -> number < bound;
+                case LESS_THAN_OR_EQUAL -> number <= bound;
+                case EQUAL -> number == bound;
+                case GREATER_THAN_OR_EQUAL -> number >= bound;
+                case GREATER_THAN -> number > bound;
+                case NOT_EQUAL -> number != bound;
+            };
+            if (!matches) return false;
+        }
+        return true;
+    }
+
+    private static boolean isSubtype(Class<?> type, String name) {
+        Deque<Class<?>> pending = new ArrayDeque<>();
+        pending.add(type);
+        while (!pending.isEmpty()) {
+            Class<?> current = pending.poll();
+            if (current.getName().equals(name)) return true;
+            if (current.getSuperclass() != null) pending.add(current.getSuperclass());
+            pending.addAll(List.of(current.getInterfaces()));
+        }
+        return false;
+    }
+
+    /**
+     * The string value of a parameter cut to maxLength chars. Strings, collections and maps are only rendered
+     * up to that length, everything else has to be rendered in full first.
+     */
+    static String render(Object parameter, int maxLength) {
+        if (parameter instanceof String text) {
+            return text.length() <= maxLength ? text : text.substring(0, maxLength);
+        }
+        StringBuilder builder = new StringBuilder();
+        append(builder, parameter, maxLength);
+        return builder.length() <= maxLength ? builder.toString() : builder.substring(0, maxLength);
+    }
+
+    // Same format as AbstractCollection and AbstractMap. Everything else, arrays included, is String.valueOf like the
+    // Objects.toString the parameter values are matched against
+    private static void append(StringBuilder builder, Object value, int maxLength) {
+        if (builder.length() >= maxLength) return;
+        if (value instanceof CharSequence text) {
+            builder.append(text, 0, Math.min(text.length(), maxLength - builder.length()));
+        } else if (value instanceof Collection<?> collection && STANDARD_TO_STRING.get(value.getClass())) {
+            builder.append('[');
+            boolean first = true;
+            for (Object element : collection) {
+                if (builder.length() >= maxLength) break;
+                if (!first) builder.append(", ");
+                first = false;
+                append(builder, element == value ? "(this Collection)" : element, maxLength);
+            }
+            builder.append(']');
+        } else if (value instanceof Map<?, ?> map && STANDARD_TO_STRING.get(value.getClass())) {
+            builder.append('{');
+            boolean first = true;
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                if (builder.length() >= maxLength) break;
+                if (!first) builder.append(", ");
+                first = false;
+                append(builder, entry.getKey() == value ? "(this Map)" : entry.getKey(), maxLength);
+                builder.append('=');
+                append(builder, entry.getValue() == value ? "(this Map)" : entry.getValue(), maxLength);
+            }
+            builder.append('}');
+        } else {
+            String text = String.valueOf(value);
+            builder.append(text, 0, Math.min(text.length(), maxLength - builder.length()));
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package de.nick1st.logging.filter;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Holds compiled {@link Pattern}s for REGEX and FIND rules, so each pattern is compiled once when the config is applied
+ * instead of on every log event. Patterns survive reloads; {@link #prune()} drops the ones the new config no longer uses.
+ */
+public class PatternCache {
+    private static final Map<String, Pattern> PATTERNS = new ConcurrentHashMap<>();
+    private static final Set<String> USED = ConcurrentHashMap.newKeySet();
+
+    public static Pattern get(String regex) {
+        USED.add(regex);
+        return PATTERNS.computeIfAbsent(regex, Pattern::compile);
+    }
+
+    /**
+     * Called before a config is compiled, so only the patterns requested by that config are kept afterwards.
+     */
+    public static void beginReload() {
+        USED.clear();
+    }
+
+    /**
+     * Called after a config was compiled successfully, removes all patterns it did not request.
+     */
+    public static void prune() {
+        PATTERNS.keySet().retainAll(USED);
+    }
+}
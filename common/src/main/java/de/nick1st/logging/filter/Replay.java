@@ -0,0 +1,357 @@
+package de.nick1st.logging.filter;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.apache.logging.log4j.Level;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Evaluates a rule config against existing log files, without starting a server:
+ * <pre>
+ * java -cp &lt;classpath&gt; de.nick1st.logging.filter.Replay [--print-suppressed] log_filter.json latest.log debug.log ...
+ * </pre>
+ * Reads Minecraft's latest.log and debug.log (vanilla, Fabric and Forge layouts) as well as files written by the
+ * capture mode (*.ndjson, see {@link EventRecorder}). Files are memory mapped and split at record boundaries, the
+ * parts are parsed and evaluated in parallel with fork/join.
+ * <p>
+ * Text logs only contain the rendered message: the format string is the message, there are no parameters, and the
+ * logger name is only known for Fabric and Forge layouts. Throwables are read back from their printed stack trace.
+ * Throttling actions are not simulated, their rules count every match as suppressed.
+ */
+public class Replay {
+    // [time] [thread/LEVEL]: message, [time] [thread/LEVEL] (logger) message or [time] [thread/LEVEL] [logger/marker]: message
+    private static final Pattern HEADER = Pattern.compile("^\\[([^\\]]*)\\] \\[([^\\]]*)/([A-Z]+)\\](?: \\[([^\\]/]*)[^\\]]*\\]:| \\(([^)]*)\\)|:) ?(.*)$");
+    private static final Pattern THROWABLE = Pattern.compile("^(?:Caused by: )?([a-zA-Z_$][\\w$]*(?:\\.[a-zA-Z_$][\\w$]*)+)(?:: ?(.*))?$");
+    // at class.method(File.java:1), optionally with a module in front and jar info after it
+    private static final Pattern FRAME = Pattern.compile("^at (?:\\S+/)?([^\\s(/]+)\\(");
+    private static final int MAX_MAPPED = 1 << 30;
+    private static final int LEAF_SIZE = 1 << 20;
+    private static final int SAMPLES = 3;
+
+    public static void main(String[] args) throws IOException {
+        boolean printSuppressed = args.length > 0 && args[0].equals("--print-suppressed");
+        List<String> arguments = Arrays.asList(args).subList(printSuppressed ? 1 : 0, args.length);
+        if (arguments.size() < 2) {
+            System.err.println("Usage: Replay [--print-suppressed] <log_filter.json> <log or capture file>...");
+            System.exit(2);
+        }
+        Config config;
+        try (Reader reader = Files.newBufferedReader(Path.of(arguments.get(0)))) {
+            config = new Gson().fromJson(reader, Config.class);
+        }
+        RuleSet ruleSet = RuleSet.compile(config, RuleSet.EMPTY);
+        int rules = config.rules.size() + 1;
+
+        ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        Result total = new Result(rules, printSuppressed);
+        long start = System.nanoTime();
+        for (String file : arguments.subList(1, arguments.size())) {
+            boolean ndjson = file.endsWith(".ndjson") || file.endsWith(".jsonl");
+            try (FileChannel channel = FileChannel.open(Path.of(file), StandardOpenOption.READ)) {
+                for (MappedByteBuffer buffer : map(channel, ndjson)) {
+                    total.add(pool.invoke(new Part(ruleSet, buffer, 0, buffer.limit(), ndjson, rules, printSuppressed)));
+                }
+            }
+        }
+        long nanos = System.nanoTime() - start;
+        pool.shutdown();
+        total.print(System.out, config, ruleSet, nanos);
+    }
+
+    /**
+     * Maps a file in pieces of at most {@link #MAX_MAPPED} bytes, each ending at a record boundary.
+     */
+    private static List<MappedByteBuffer> map(FileChannel channel, boolean ndjson) throws IOException {
+        List<MappedByteBuffer> buffers = new ArrayList<>();
+        long size = channel.size();
+        long position = 0;
+        while (position < size) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAX_MAPPED, size - position));
+            int end = buffer.limit();
+            if (position + end < size) {
+                int boundary = end - 1;
+                while (boundary > 0 && !isRecordStart(buffer, boundary, ndjson)) boundary--;
+                // A single record larger than the whole piece is cut
+                if (boundary > 0) end = boundary;
+            }
+            buffers.add(end == buffer.limit() ? buffer : buffer.slice(0, end));
+            position += end;
+        }
+        return buffers;
+    }
+
+    private static boolean isRecordStart(MappedByteBuffer buffer, int index, boolean ndjson) {
+        return buffer.get(index - 1) == '\n' && (ndjson || buffer.get(index) == '[');
+    }
+
+    // Never serialized, a task only lives in the pool of one replay
+    @SuppressWarnings("serial")
+    private static class Part extends RecursiveTask<Result> {
+        private final RuleSet ruleSet;
+        private final MappedByteBuffer buffer;
+        private final int from;
+        private final int to;
+        private final boolean ndjson;
+        private final int rules;
+        private final boolean keepLines;
+
+        private Part(RuleSet ruleSet, MappedByteBuffer buffer, int from, int to, boolean ndjson, int rules, boolean keepLines) {
+            this.ruleSet = ruleSet;
+            this.buffer = buffer;
+            this.from = from;
+            this.to = to;
+            this.ndjson = ndjson;
+            this.rules = rules;
+            this.keepLines = keepLines;
+        }
+
+        @Override
+        protected Result compute() {
+            if (to - from > LEAF_SIZE) {
+                int middle = from + (to - from) / 2;
+                while (middle < to && !isRecordStart(buffer, middle, ndjson)) middle++;
+                if (middle < to) {
+                    Part left = new Part(ruleSet, buffer, from, middle, ndjson, rules, keepLines);
+                    Part right = new Part(ruleSet, buffer, middle, to, ndjson, rules, keepLines);
+                    left.fork();
+                    Result result = right.compute();
+                    return left.join().add(result);
+                }
+            }
+            Result result = new Result(rules, keepLines);
+            String text = StandardCharsets.UTF_8.decode(buffer.slice(from, to - from)).toString();
+            if (ndjson) {
+                text.lines().filter(line -> !line.isBlank()).forEach(line -> evaluateRecorded(line, result));
+            } else {
+                parseLog(text, result);
+            }
+            return result;
+        }
+
+        private void parseLog(String text, Result result) {
+            String header = null;
+            Matcher event = null;
+            StackTrace trace = null;
+            for (String line : (Iterable<String>) text.lines()::iterator) {
+                Matcher matcher = HEADER.matcher(line);
+                if (matcher.matches()) {
+                    if (event != null) evaluateLog(header, event, trace, result);
+                    header = line;
+                    event = matcher;
+                    trace = null;
+                } else if (event != null && trace == null) {
+                    // The first line of a stack trace names the throwable
+                    Matcher throwable = THROWABLE.matcher(line.strip());
+                    if (throwable.matches()) trace = new StackTrace(throwable);
+                } else if (trace != null) {
+                    trace.add(line.strip());
+                }
+            }
+            if (event != null) evaluateLog(header, event, trace, result);
+        }
+
+        private void evaluateLog(String line, Matcher event, StackTrace trace, Result result) {
+            String loggerName = event.group(4) != null ? event.group(4) : event.group(5) != null ? event.group(5) : "";
+            String message = event.group(6);
+            evaluate(FilterEvent.acquire().set(loggerName, Level.toLevel(event.group(3), Level.INFO), event.group(2),
+                    trace != null ? trace.info() : null, message, message, new String[0], new String[0]), line, result);
+        }
+
+        private void evaluateRecorded(String line, Result result) {
+            JsonObject json;
+            try {
+                json = JsonParser.parseString(line).getAsJsonObject();
+            } catch (RuntimeException e) {
+                result.malformed++;
+                return;
+            }
+            String[] classes = strings(json.get("parameterClasses"));
+            String[] values = strings(json.get("parameterValues"));
+            evaluate(FilterEvent.acquire().set(string(json, "loggerName"), Level.toLevel(string(json, "level"), Level.INFO),
+                    string(json, "threadName"), throwable(json), string(json, "message"), string(json, "format"),
+                    Arrays.copyOf(classes, values.length), values), line, result);
+        }
+
+        private static ThrowableInfo throwable(JsonObject json) {
+            String throwableClass = string(json, "throwableClass");
+            if (throwableClass == null) return null;
+            // Captures of older versions only have the class
+            String[] causeClasses = json.has("causeClasses") ? strings(json.get("causeClasses")) : new String[]{throwableClass};
+            return new ThrowableInfo(throwableClass, causeClasses, string(json, "rootCauseMessage"), strings(json.get("stackFrames")));
+        }
+
+        private static String string(JsonObject json, String name) {
+            JsonElement element = json.get(name);
+            return element == null || element.isJsonNull() ? null : element.getAsString();
+        }
+
+        private static String[] strings(JsonElement element) {
+            if (!(element instanceof JsonArray array)) return new String[0];
+            String[] strings = new String[array.size()];
+            for (int i = 0; i < strings.length; i++) {
+                strings[i] = array.get(i).isJsonNull() ? null : array.get(i).getAsString();
+            }
+            return strings;
+        }
+
+        private void evaluate(FilterEvent event, String line, Result result) {
+            try {
+                result.events++;
+                for (FilterPredicate filter : ruleSet.rules.candidates(event.getLoggerName(), event.getLevel())) {
+                    if (evaluate(filter, event, line, result)) {
+                        result.suppressed++;
+                        if (result.lines != null) result.lines.add(line);
+                        break;
+                    }
+                }
+                // Targeted rules only suppress the event for some appenders, their hits aren't counted as suppressed
+                if (ruleSet.targeted != null) {
+                    for (FilterPredicate filter : ruleSet.targeted.rules.candidates(event.getLoggerName(), event.getLevel())) {
+                        evaluate(filter, event, line, result);
+                    }
+                }
+            } finally {
+                event.release();
+            }
+        }
+
+        private boolean evaluate(FilterPredicate filter, FilterEvent event, String line, Result result) {
+            int number = ruleSet.number(filter);
+            boolean matched;
+            long start = System.nanoTime();
+            try {
+                matched = filter.test(event);
+            } catch (RuntimeException e) {
+                result.errors[number]++;
+                matched = false;
+            }
+            result.nanos[number] += System.nanoTime() - start;
+            result.evaluations[number]++;
+            if (matched) {
+                result.hits[number]++;
+                if (result.samples.get(number).size() < SAMPLES) result.samples.get(number).add(line);
+            }
+            return matched;
+        }
+    }
+
+    /**
+     * A stack trace printed below a log line, read back into what the throwable rules match on.
+     */
+    private static class StackTrace {
+        private final String className;
+        private final List<String> causeClasses = new ArrayList<>();
+        private String rootCauseMessage;
+        private final List<String> frames = new ArrayList<>();
+        // Frames are only collected for the throwable itself, not for its causes or suppressed throwables
+        private boolean ownFrames = true;
+
+        private StackTrace(Matcher first) {
+            className = first.group(1);
+            causeClasses.add(className);
+            rootCauseMessage = first.group(2);
+        }
+
+        private void add(String line) {
+            Matcher frame = FRAME.matcher(line);
+            if (frame.find()) {
+                if (ownFrames && frames.size() < ThrowableInfo.MAX_FRAMES) frames.add(frame.group(1));
+            } else if (line.startsWith("Caused by: ")) {
+                ownFrames = false;
+                Matcher cause = THROWABLE.matcher(line);
+                if (cause.matches()) {
+                    causeClasses.add(cause.group(1));
+                    rootCauseMessage = cause.group(2);
+                }
+            } else if (line.startsWith("Suppressed: ")) {
+                ownFrames = false;
+            }
+        }
+
+        private ThrowableInfo info() {
+            return new ThrowableInfo(className, causeClasses.toArray(String[]::new), rootCauseMessage, frames.toArray(String[]::new));
+        }
+    }
+
+    /**
+     * Counts per rule, indexed by rule number.
+     */
+    private static class Result {
+        private long events;
+        private long suppressed;
+        private long malformed;
+        private final long[] hits;
+        private final long[] evaluations;
+        private final long[] nanos;
+        private final long[] errors;
+        private final List<List<String>> samples = new ArrayList<>();
+        // All suppressed lines in file order, only kept for --print-suppressed
+        private final List<String> lines;
+
+        private Result(int rules, boolean keepLines) {
+            hits = new long[rules];
+            evaluations = new long[rules];
+            nanos = new long[rules];
+            errors = new long[rules];
+            for (int i = 0; i < rules; i++) {
+                samples.add(new ArrayList<>());
+            }
+            lines = keepLines ? new ArrayList<>() : null;
+        }
+
+        private Result add(Result other) {
+            events += other.events;
+            suppressed += other.suppressed;
+            malformed += other.malformed;
+            for (int i = 0; i < hits.length; i++) {
+                hits[i] += other.hits[i];
+                evaluations[i] += other.evaluations[i];
+                nanos[i] += other.nanos[i];
+                errors[i] += other.errors[i];
+                List<String> samples = this.samples.get(i);
+                other.samples.get(i).stream().limit(SAMPLES - samples.size()).forEach(samples::add);
+            }
+            if (lines != null) lines.addAll(other.lines);
+            return this;
+        }
+
+        private void print(PrintStream out, Config config, RuleSet ruleSet, long nanos) {
+            if (lines != null) {
+                lines.forEach(out::println);
+                out.println();
+            }
+            Set<Integer> kept = new HashSet<>();
+            ruleSet.allRules().forEach(filter -> kept.add(ruleSet.number(filter)));
+            out.printf(Locale.ROOT, "%,d events in %.2f s (%,.0f events/s), %,d suppressed (%.1f%%)%n", events, nanos / 1e9,
+                    events / Math.max(nanos / 1e9, 1e-9), suppressed, events == 0 ? 0 : suppressed * 100.0 / events);
+            if (malformed > 0) out.printf(Locale.ROOT, "%,d malformed records skipped%n", malformed);
+            for (int number = 1; number <= config.rules.size(); number++) {
+                if (!kept.contains(number)) {
+                    out.printf(Locale.ROOT, "Rule #%d: removed by the optimizer%n", number);
+                    continue;
+                }
+                out.printf(Locale.ROOT, "Rule #%d: %,d hits, %,d evaluations, %.0f ns per evaluation%s%n", number, hits[number],
+                        evaluations[number], evaluations[number] == 0 ? 0 : this.nanos[number] / (double) evaluations[number],
+                        errors[number] > 0 ? String.format(Locale.ROOT, ", %,d errors", errors[number]) : "");
+                samples.get(number).forEach(line -> out.println("    " + line));
+            }
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package de.nick1st.logging.filter;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntUnaryOperator;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+/**
+ * Compiles a {@link Config.FilterRule} into a single {@link MethodHandle} of type {@code (FilterEvent)boolean}.
+ * <p>
+ * Unlike the lambda chain built by {@link FilterPredicate}, the handle tree has all rule values (strings, patterns,
+ * level masks, literal ids) bound as constants. The JVM customizes and compiles the lambda forms of a handle that is
+ * invoked often, which yields one flat, monomorphic piece of code per rule instead of megamorphic call sites.
+ * The structure mirrors {@link FilterPredicate}, both backends must decide every event the same way.
+ */
+public class RuleCompiler {
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+    private static final MethodType TEST = MethodType.methodType(boolean.class, FilterEvent.class);
+    private static final MethodHandle TRUE = MethodHandles.dropArguments(MethodHandles.constant(boolean.class, true), 0, FilterEvent.class);
+    private static final MethodHandle FALSE = MethodHandles.dropArguments(MethodHandles.constant(boolean.class, false), 0, FilterEvent.class);
+    private static final MethodHandle NOT;
+    private static final MethodHandle NOT_OWN_LOGGER;
+    private static final MethodHandle LEVEL_IN;
+    private static final MethodHandle PRESENT;
+    private static final MethodHandle CAUSE_CLASS;
+    private static final MethodHandle STACK_FRAME;
+    private static final MethodHandle PARAMETER;
+    private static final MethodHandle LITERAL;
+    private static final MethodHandle MATCH;
+    private static final MethodHandle MATCH_IGNORE_CASE;
+    private static final MethodHandle REGEX;
+    private static final MethodHandle FIND;
+
+    static {
+        try {
+            NOT = LOOKUP.findStatic(RuleCompiler.class, "not", MethodType.methodType(boolean.class, boolean.class));
+            NOT_OWN_LOGGER = LOOKUP.findStatic(RuleCompiler.class, "notOwnLogger", TEST);
+            LEVEL_IN = LOOKUP.findStatic(RuleCompiler.class, "levelIn", TEST.insertParameterTypes(0, int.class));
+            PRESENT = LOOKUP.findStatic(RuleCompiler.class, "present", TEST.insertParameterTypes(0, int.class));
+            CAUSE_CLASS = LOOKUP.findStatic(RuleCompiler.class, "causeClass", TEST.insertParameterTypes(0, Predicate.class));
+            STACK_FRAME = LOOKUP.findStatic(RuleCompiler.class, "stackFrame", TEST.insertParameterTypes(0, Predicate.class, int.class));
+            PARAMETER = LOOKUP.findVirtual(ParameterMatcher.class, "test", TEST);
+            LITERAL = LOOKUP.findVirtual(LiteralMatcher.class, "test", MethodType.methodType(boolean.class, FilterEvent.class, int.class, int.class));
+            MATCH = LOOKUP.findStatic(RuleCompiler.class, "match", TEST.insertParameterTypes(0, String.class, int.class));
+            MATCH_IGNORE_CASE = LOOKUP.findStatic(RuleCompiler.class, "matchIgnoreCase", TEST.insertParameterTypes(0, String.class, int.class));
+            REGEX = LOOKUP.findStatic(RuleCompiler.class, "regex", TEST.insertParameterTypes(0, Pattern.class, int.class));
+            FIND = LOOKUP.findStatic(RuleCompiler.class, "find", TEST.insertParameterTypes(0, Pattern.class, int.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    public static MethodHandle compile(Config.FilterRule rule, LiteralMatcher literals, List<FilterPredicate.Condition> order) {
+        MethodHandle handle = NOT_OWN_LOGGER;
+        for (FilterPredicate.Condition condition : order) {
+            handle = and(handle, switch (condition) {
+                case LEVEL -> rule.level.isEmpty() ? TRUE : MethodHandles.insertArguments(LEVEL_IN, 0, RuleIndex.levelMask(rule.level));
+                case LOGGER_NAME -> compileStrings(rule.loggerName, FilterEvent.LOGGER_NAME, false, literals);
+                case THREAD_NAME -> compileStrings(rule.threadName, FilterEvent.THREAD_NAME, false, literals);
+                case THROWABLE_CLASS -> compileStrings(rule.throwableClass, FilterEvent.THROWABLE_CLASS, false, literals);
+                case CAUSE_CLASS -> rule.causeClass.isEmpty() ? TRUE
+                        : MethodHandles.insertArguments(CAUSE_CLASS, 0, FilterPredicate.createValuePredicate(rule.causeClass, false));
+                case ROOT_CAUSE_MESSAGE -> compileStrings(rule.rootCauseMessage, FilterEvent.ROOT_CAUSE_MESSAGE, false, literals);
+                case STACK_FRAME -> rule.stackFrame.isEmpty() ? TRUE
+                        : MethodHandles.insertArguments(STACK_FRAME, 0, FilterPredicate.createValuePredicate(rule.stackFrame, false), rule.stackFrameDepth);
+                case MESSAGE -> compileStrings(rule.message, FilterEvent.MESSAGE, false, literals);
+                case FORMAT_MESSAGE -> compileStrings(rule.formatMessage, FilterEvent.FORMAT, false, literals);
+                case PARAMETER_CLASSES -> compileStringMaps(rule.parameterClasses, FilterEvent::parameterClass, literals);
+                case PARAMETERS -> compileParameters(rule.parameters);
+                case PARAMETER_VALUES -> compileStringMaps(rule.parameterValues, FilterEvent::parameterValue, literals);
+            });
+        }
+        return handle;
+    }
+
+    private static MethodHandle compileStrings(List<Config.StringComparable> stringRules, int field, boolean reentry, LiteralMatcher literals) {
+        MethodHandle handle = null;
+        for (Config.StringComparable stringComparable : stringRules) {
+            handle = or(handle, compileString(stringComparable, field, reentry, literals));
+        }
+        return handle != null ? handle : TRUE;
+    }
+
+    private static MethodHandle compileString(Config.StringComparable stringComparable, int field, boolean reentry, LiteralMatcher literals) {
+        String value = stringComparable.value;
+        MethodHandle handle = switch (stringComparable.relation) {
+            case STARTS_WITH, STARTS_WITH_IGNORE_CASE, ENDS_WITH, ENDS_WITH_IGNORE_CASE, CONTAINS, CONTAINS_IGNORE_CASE ->
+                    MethodHandles.insertArguments(LITERAL.bindTo(literals), 1, field, literals.add(field, stringComparable.relation, value));
+            case MATCH -> MethodHandles.insertArguments(MATCH, 0, value, field);
+            case MATCH_IGNORE_CASE -> MethodHandles.insertArguments(MATCH_IGNORE_CASE, 0, value, field);
+            case REGEX -> MethodHandles.insertArguments(REGEX, 0, PatternCache.get(value), field);
+            case FIND -> MethodHandles.insertArguments(FIND, 0, PatternCache.get(value), field);
+            case null -> throw new IllegalStateException("Unexpected value: " + null);
+        };
+        if (!reentry && !stringComparable.whitelist.isEmpty()) {
+            handle = and(handle, MethodHandles.filterReturnValue(compileStrings(stringComparable.whitelist, field, true, literals), NOT));
+        }
+        if (!reentry && FilterEvent.nullable(field)) {
+            handle = and(MethodHandles.insertArguments(PRESENT, 0, field), handle);
+        }
+        return handle;
+    }
+
+    private static MethodHandle compileStringMaps(List<Map<Integer, Config.StringComparable>> stringMapRules, IntUnaryOperator fieldOfParameter, LiteralMatcher literals) {
+        MethodHandle handle = null;
+        for (Map<Integer, Config.StringComparable> stringMapRule : stringMapRules) {
+            MethodHandle mapHandle = TRUE;
+            for (Map.Entry<Integer, Config.StringComparable> entry : stringMapRule.entrySet()) {
+                mapHandle = and(mapHandle, compileString(entry.getValue(), fieldOfParameter.applyAsInt(entry.getKey()), false, literals));
+            }
+            handle = or(handle, mapHandle);
+        }
+        return handle != null ? handle : TRUE;
+    }
+
+    private static MethodHandle compileParameters(List<Map<Integer, Config.ParameterComparable>> parameterRules) {
+        MethodHandle handle = null;
+        for (Map<Integer, Config.ParameterComparable> parameterRule : parameterRules) {
+            MethodHandle mapHandle = TRUE;
+            for (Map.Entry<Integer, Config.ParameterComparable> entry : parameterRule.entrySet()) {
+                mapHandle = and(mapHandle, PARAMETER.bindTo(new ParameterMatcher(entry.getKey(), entry.getValue())));
+            }
+            handle = or(handle, mapHandle);
+        }
+        return handle != null ? handle : TRUE;
+    }
+
+    private static MethodHandle and(MethodHandle first, MethodHandle second) {
+        if (first == TRUE) return second;
+        if (second == TRUE) return first;
+        return MethodHandles.guardWithTest(first, second, FALSE);
+    }
+
+    private static MethodHandle or(MethodHandle first, MethodHandle second) {
+        if (first == null) return second;
+        return MethodHandles.guardWithTest(first, TRUE, second);
+    }
+
+    private static boolean not(boolean value) {
+        return !value;
+    }
+
+    private static boolean notOwnLogger(FilterEvent event) {
+        return event.getLoggerName() != Constants.MOD_NAME; // Guard against processing our own logging
+    }
+
+    private static boolean present(int field, FilterEvent event) {
+        return event.get(field) != null;
+    }
+
+    private static boolean causeClass(Predicate<String> predicate, FilterEvent event) {
+        ThrowableInfo throwable = event.getThrowableInfo();
+        return throwable != null && throwable.anyCauseClass(predicate);
+    }
+
+    private static boolean stackFrame(Predicate<String> predicate, int depth, FilterEvent event) {
+        ThrowableInfo throwable = event.getThrowableInfo();
+        return throwable != null && throwable.anyFrame(predicate, depth);
+    }
+
+    private static boolean levelIn(int mask, FilterEvent event) {
+        return (mask & (1 << Config.LogLevel.convert(event.getLevel()).ordinal())) != 0;
+    }
+
+    private static boolean match(String value, int field, FilterEvent event) {
+        return event.get(field).equals(value);
+    }
+
+    private static boolean matchIgnoreCase(String value, int field, FilterEvent event) {
+        return event.get(field).equalsIgnoreCase(value);
+    }
+
+    private static boolean regex(Pattern pattern, int field, FilterEvent event) {
+        return pattern.matcher(event.get(field)).matches();
+    }
+
+    private static boolean find(Pattern pattern, int field, FilterEvent event) {
+        return pattern.matcher(event.get(field)).find();
+    }
+}
@@ -0,0 +1,171 @@
+package de.nick1st.logging.filter;
+
+import org.apache.logging.log4j.Level;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Dispatches an event only to the rules that could fire for its level and logger name.
+ * <p>
+ * Each rule gets a bitmask of the levels its level constraints allow. Rules whose logger name constraints are all
+ * MATCH or STARTS_WITH go into a prefix trie, all other rules are candidates for every logger name. The candidates of a
+ * logger name are looked up once per level and cached, so the per-event cost stays constant as the rule count grows.
+ * The cache is bounded with the same CLOCK eviction as {@link DecisionCache}, so a server with more loggers than fit
+ * keeps the ones in use. Candidates keep the config order, so the same rule gets credited as without the index.
+ */
+public class RuleIndex {
+    private static final int LEVELS = Config.LogLevel.values().length;
+    private static final int MAX_CACHED_LOGGERS = 8192;
+
+    private final List<FilterPredicate> filters;
+    private final int[] levelMasks;
+    private final Node root = new Node();
+    private final BitSet unindexed = new BitSet();
+    private final Map<String, Entry> cache = new ConcurrentHashMap<>();
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private final boolean staticOnly;
+
+    public RuleIndex(List<FilterPredicate> filters) {
+        this.filters = List.copyOf(filters);
+        this.levelMasks = new int[filters.size()];
+        for (int i = 0; i < filters.size(); i++) {
+            Config.FilterRule rule = filters.get(i).rule;
+            levelMasks[i] = levelMask(rule.level);
+            if (!index(rule.loggerName, i)) {
+                unindexed.set(i);
+            }
+        }
+        staticOnly = filters.stream().allMatch(filter -> filter.staticOnly);
+    }
+
+    public List<FilterPredicate> getFilters() {
+        return filters;
+    }
+
+    /**
+     * Whether the outcome of every event only depends on logger name, level, thread name and format string.
+     */
+    public boolean isStaticOnly() {
+        return staticOnly;
+    }
+
+    /**
+     * The rules that could fire for the given logger name and level, in config order.
+     */
+    public FilterPredicate[] candidates(String loggerName, Level level) {
+        int levelOrdinal = Config.LogLevel.convert(level).ordinal();
+        if (loggerName == null) loggerName = "";
+        Entry entry = cache.get(loggerName);
+        if (entry == null) {
+            entry = new Entry(compute(loggerName));
+            cache.put(loggerName, entry);
+            if (cache.size() > MAX_CACHED_LOGGERS && evictionLock.tryLock()) {
+                try {
+                    evict();
+                } finally {
+                    evictionLock.unlock();
+                }
+            }
+        } else if (!entry.referenced) {
+            // Only written when it changes, most loggers are hit by many threads
+            entry.referenced = true;
+        }
+        return entry.byLevel[levelOrdinal];
+    }
+
+    private void evict() {
+        int target = MAX_CACHED_LOGGERS - MAX_CACHED_LOGGERS / 10;
+        // Two sweeps at most: the first one may only clear reference flags
+        for (int sweep = 0; sweep < 2 && cache.size() > target; sweep++) {
+            Iterator<Entry> iterator = cache.values().iterator();
+            while (iterator.hasNext() && cache.size() > target) {
+                Entry entry = iterator.next();
+                if (entry.referenced) {
+                    entry.referenced = false;
+                } else {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    private FilterPredicate[][] compute(String loggerName) {
+        BitSet candidates = (BitSet) unindexed.clone();
+        Node node = root;
+        candidates.or(node.prefix);
+        for (int i = 0; i < loggerName.length() && node != null; i++) {
+            node = node.children.get(loggerName.charAt(i));
+            if (node != null) candidates.or(node.prefix);
+        }
+        if (node != null) candidates.or(node.exact);
+
+        FilterPredicate[][] byLevel = new FilterPredicate[LEVELS][];
+        for (int level = 0; level < LEVELS; level++) {
+            List<FilterPredicate> list = new ArrayList<>();
+            for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+                if ((levelMasks[i] & (1 << level)) != 0) {
+                    list.add(filters.get(i));
+                }
+            }
+            byLevel[level] = list.toArray(new FilterPredicate[0]);
+        }
+        return byLevel;
+    }
+
+    private boolean index(List<Config.StringComparable> loggerNames, int rule) {
+        if (loggerNames.isEmpty()) return false;
+        for (Config.StringComparable loggerName : loggerNames) {
+            if (loggerName.value == null || (loggerName.relation != Config.StringComparable.Relation.MATCH
+                    && loggerName.relation != Config.StringComparable.Relation.STARTS_WITH)) {
+                return false;
+            }
+        }
+        // The whitelist can only remove events, so the rule stays a valid candidate without looking at it
+        for (Config.StringComparable loggerName : loggerNames) {
+            Node node = root;
+            for (int i = 0; i < loggerName.value.length(); i++) {
+                node = node.children.computeIfAbsent(loggerName.value.charAt(i), c -> new Node());
+            }
+            (loggerName.relation == Config.StringComparable.Relation.MATCH ? node.exact : node.prefix).set(rule);
+        }
+        return true;
+    }
+
+    static int levelMask(List<Config.Comparable<Config.LogLevel>> levels) {
+        int mask = 0;
+        for (int level = 0; level < LEVELS; level++) {
+            boolean matches = true;
+            for (Config.Comparable<Config.LogLevel> comparable : levels) {
+                int value = comparable.value.ordinal();
+                matches &= switch (comparable.relation) {
+                    case EQUAL -> level == value;
+                    case LESS_THAN -> level < value;
+                    case LESS_THAN_OR_EQUAL -> level <= value;
+                    case NOT_EQUAL -> level != value;
+                    case GREATER_THAN -> level > value;
+                    case GREATER_THAN_OR_EQUAL -> level >= value;
+                    case null -> throw new IllegalStateException("Unexpected value: " + null);
+                };
+            }
+            if (matches) mask |= 1 << level;
+        }
+        return mask;
+    }
+
+    private static class Entry {
+        private final FilterPredicate[][] byLevel;
+        private volatile boolean referenced = false;
+
+        private Entry(FilterPredicate[][] byLevel) {
+            this.byLevel = byLevel;
+        }
+    }
+
+    private static class Node {
+        private final Map<Character, Node> children = new HashMap<>();
+        private final BitSet prefix = new BitSet();
+        private final BitSet exact = new BitSet();
+    }
+}
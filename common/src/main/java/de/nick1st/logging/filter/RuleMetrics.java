@@ -0,0 +1,54 @@
+package de.nick1st.logging.filter;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of a single rule, only updated while {@link Config#metrics} is on. All counters are {@link LongAdder}s, so
+ * logging threads don't contend on them. Evaluation time is only measured for one in {@link #SAMPLE_RATE}
+ * evaluations, reading the clock costs about as much as a cheap rule.
+ * <p>
+ * The counters live as long as the rule's {@link FilterPredicate}, so they survive reloads that don't change the rule.
+ */
+public class RuleMetrics {
+    private static final int SAMPLE_RATE = 64;
+
+    // Events the rule denied, counted by the filter once the rule's throttle (if any) decided
+    public final LongAdder matches = new LongAdder();
+    public final LongAdder evaluations = new LongAdder();
+    public final LongAdder sampledNanos = new LongAdder();
+    public final LongAdder samples = new LongAdder();
+
+    /**
+     * Evaluates the rule and counts the evaluation. A match isn't counted here, a throttling rule may still let the
+     * event through.
+     */
+    public boolean evaluate(FilterPredicate filter, FilterEvent event) {
+        evaluations.increment();
+        boolean matched;
+        if (ThreadLocalRandom.current().nextInt(SAMPLE_RATE) == 0) {
+            long start = System.nanoTime();
+            matched = filter.test(event);
+            sampledNanos.add(System.nanoTime() - start);
+            samples.increment();
+        } else {
+            matched = filter.test(event);
+        }
+        return matched;
+    }
+
+    /**
+     * The mean evaluation time of the sampled evaluations, 0 if none were sampled yet.
+     */
+    public double getMeanNanos() {
+        long samples = this.samples.sum();
+        return samples == 0 ? 0 : sampledNanos.sum() / (double) samples;
+    }
+
+    public void reset() {
+        matches.reset();
+        evaluations.reset();
+        sampledNanos.reset();
+        samples.reset();
+    }
+}
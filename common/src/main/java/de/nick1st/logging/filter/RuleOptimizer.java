@@ -0,0 +1,250 @@
+package de.nick1st.logging.filter;
+
+import com.google.gson.Gson;
+
+import java.util.*;
+
+/**
+ * Plans the evaluation of a rule set before it is compiled.
+ * <ul>
+ *     <li>Constant folding: duplicate comparables are removed, string conditions that are always true (e.g. CONTAINS "")
+ *     and level conditions allowing every level are dropped.</li>
+ *     <li>Dead rule elimination: rules that can't match any level, and rules covered by an earlier rule (every event
+ *     they match is matched by that rule first) are dropped. Covered rules with logRuleFiring are kept, the covering rule
+ *     only logs its firing if it was configured to.</li>
+ *     <li>Condition ordering: the conditions of each rule are ordered by estimated cost / (1 - pass rate), so cheap
+ *     and selective checks run before e.g. a regex on the formatted message.</li>
+ * </ul>
+ * The costs are rough estimates in arbitrary units, they only need to be right relative to each other.
+ */
+public class RuleOptimizer {
+    private static final Gson GSON = new Gson();
+    private static final int ALL_LEVELS = (1 << Config.LogLevel.values().length) - 1;
+
+    public record PlannedRule(int index, Config.FilterRule rule, List<FilterPredicate.Condition> order, double cost) {}
+
+    public record Plan(List<PlannedRule> rules, List<String> report) {}
+
+    private record Estimate(FilterPredicate.Condition condition, double cost, double passRate) {
+        private double rank() {
+            return passRate >= 1 ? Double.MAX_VALUE : cost / (1 - passRate);
+        }
+    }
+
+    public static Plan optimize(List<Config.FilterRule> rules) {
+        List<PlannedRule> planned = new ArrayList<>();
+        List<String> report = new ArrayList<>();
+        for (int i = 0; i < rules.size(); i++) {
+            Config.FilterRule rule = fold(rules.get(i));
+            if (RuleIndex.levelMask(rule.level) == 0) {
+                report.add("#" + (i + 1) + " dropped: no level can match");
+                continue;
+            }
+            PlannedRule covering = planned.stream().filter(p -> covers(p.rule(), rule)).findFirst().orElse(null);
+            if (covering != null && !rule.logRuleFiring) {
+                report.add("#" + (i + 1) + " dropped: covered by #" + (covering.index() + 1));
+                continue;
+            }
+            PlannedRule plannedRule = plan(i, rule);
+            planned.add(plannedRule);
+            StringJoiner order = new StringJoiner(" -> ");
+            plannedRule.order().forEach(condition -> order.add(condition.name()));
+            report.add(String.format(Locale.ROOT, "#%d cost %.1f: %s", i + 1, plannedRule.cost(),
+                    plannedRule.order().isEmpty() ? "matches every event" : order.toString()));
+        }
+        return new Plan(planned, report);
+    }
+
+    /**
+     * Returns a simplified copy of the rule, the config itself is left untouched.
+     */
+    private static Config.FilterRule fold(Config.FilterRule original) {
+        Config.FilterRule rule = GSON.fromJson(GSON.toJson(original), Config.FilterRule.class);
+        if (RuleIndex.levelMask(rule.level) == ALL_LEVELS) {
+            rule.level.clear();
+        }
+        foldStrings(rule.loggerName);
+        foldStrings(rule.threadName);
+        foldStrings(rule.message);
+        foldStrings(rule.formatMessage);
+        dedupe(rule.throwableClass);
+        dedupe(rule.causeClass);
+        dedupe(rule.rootCauseMessage);
+        dedupe(rule.stackFrame);
+        dedupe(rule.parameterClasses);
+        dedupe(rule.parameterValues);
+        dedupe(rule.parameters);
+        return rule;
+    }
+
+    // Not applied to the throwable fields and the parameters, there even an always true check fails without a throwable or parameter
+    private static void foldStrings(List<Config.StringComparable> comparables) {
+        dedupe(comparables);
+        if (comparables.stream().anyMatch(RuleOptimizer::alwaysTrue)) {
+            comparables.clear();
+        }
+    }
+
+    private static boolean alwaysTrue(Config.StringComparable comparable) {
+        if (!comparable.whitelist.isEmpty() || !"".equals(comparable.value)) return false;
+        return switch (comparable.relation) {
+            case STARTS_WITH, CONTAINS, ENDS_WITH, STARTS_WITH_IGNORE_CASE, CONTAINS_IGNORE_CASE, ENDS_WITH_IGNORE_CASE, FIND -> true;
+            case null, default -> false;
+        };
+    }
+
+    private static <T> void dedupe(List<T> list) {
+        Set<String> seen = new HashSet<>();
+        list.removeIf(element -> !seen.add(GSON.toJson(element)));
+    }
+
+    /**
+     * Conservative check whether every event matching {@code rule} also matches {@code by}.
+     */
+    private static boolean covers(Config.FilterRule by, Config.FilterRule rule) {
+        // A throttling rule lets events through, so they can still reach the rule
+        if (by.action != Config.Action.DENY) return false;
+        // A targeted rule only covers rules whose events it denies for the same appenders or more
+        if (!by.targets.isEmpty() && (rule.targets.isEmpty() || !by.targets.containsAll(rule.targets))) return false;
+        int byMask = RuleIndex.levelMask(by.level);
+        int ruleMask = RuleIndex.levelMask(rule.level);
+        return (byMask & ruleMask) == ruleMask
+                && coversAny(by.loggerName, rule.loggerName)
+                && coversAny(by.threadName, rule.threadName)
+                && coversAny(by.throwableClass, rule.throwableClass)
+                && coversAny(by.causeClass, rule.causeClass)
+                && coversAny(by.rootCauseMessage, rule.rootCauseMessage)
+                && coversAny(by.stackFrame, rule.stackFrame)
+                // Deeper frames only add matches
+                && (by.stackFrame.isEmpty() || by.stackFrameDepth >= rule.stackFrameDepth)
+                && coversAny(by.message, rule.message)
+                && coversAny(by.formatMessage, rule.formatMessage)
+                && coversAny(by.parameterClasses, rule.parameterClasses)
+                && coversAny(by.parameterValues, rule.parameterValues)
+                && coversAny(by.parameters, rule.parameters);
+    }
+
+    // The entries of a list are combined by OR, so a list covers another one if it contains all of its entries
+    private static <T> boolean coversAny(List<T> by, List<T> rule) {
+        if (by.isEmpty()) return true;
+        if (rule.isEmpty()) return false;
+        Set<String> byEntries = new HashSet<>();
+        by.forEach(entry -> byEntries.add(GSON.toJson(entry)));
+        return rule.stream().allMatch(entry -> byEntries.contains(GSON.toJson(entry)));
+    }
+
+    private static PlannedRule plan(int index, Config.FilterRule rule) {
+        List<Estimate> estimates = new ArrayList<>();
+        if (!rule.level.isEmpty()) {
+            estimates.add(new Estimate(FilterPredicate.Condition.LEVEL, 1, Integer.bitCount(RuleIndex.levelMask(rule.level)) / (double) Config.LogLevel.values().length));
+        }
+        addStrings(estimates, FilterPredicate.Condition.LOGGER_NAME, rule.loggerName, 1);
+        addStrings(estimates, FilterPredicate.Condition.THREAD_NAME, rule.threadName, 2);
+        addStrings(estimates, FilterPredicate.Condition.THROWABLE_CLASS, rule.throwableClass, 2);
+        // The cause chain usually has a few entries, stack frames are walked once per throwable and then memoized
+        addStrings(estimates, FilterPredicate.Condition.CAUSE_CLASS, rule.causeClass, 3, 2);
+        addStrings(estimates, FilterPredicate.Condition.ROOT_CAUSE_MESSAGE, rule.rootCauseMessage, 3);
+        addStrings(estimates, FilterPredicate.Condition.STACK_FRAME, rule.stackFrame, 5, Math.max(1, Math.min(rule.stackFrameDepth, ThrowableInfo.MAX_FRAMES)));
+        addStrings(estimates, FilterPredicate.Condition.MESSAGE, rule.message, 50);
+        addStrings(estimates, FilterPredicate.Condition.FORMAT_MESSAGE, rule.formatMessage, 1);
+        addMaps(estimates, FilterPredicate.Condition.PARAMETER_CLASSES, rule.parameterClasses, 3);
+        addMaps(estimates, FilterPredicate.Condition.PARAMETER_VALUES, rule.parameterValues, 30);
+        addParameters(estimates, rule.parameters);
+        estimates.sort(Comparator.comparingDouble(Estimate::rank));
+
+        // Expected cost: a condition only runs if all conditions before it passed
+        double cost = 0;
+        double reached = 1;
+        List<FilterPredicate.Condition> order = new ArrayList<>();
+        for (Estimate estimate : estimates) {
+            cost += reached * estimate.cost();
+            reached *= estimate.passRate();
+            order.add(estimate.condition());
+        }
+        return new PlannedRule(index, rule, List.copyOf(order), cost);
+    }
+
+    private static void addStrings(List<Estimate> estimates, FilterPredicate.Condition condition, List<Config.StringComparable> comparables, double extractionCost) {
+        addStrings(estimates, condition, comparables, extractionCost, 1);
+    }
+
+    /**
+     * @param values how many values the condition tests, it passes if any of them matches
+     */
+    private static void addStrings(List<Estimate> estimates, FilterPredicate.Condition condition, List<Config.StringComparable> comparables, double extractionCost, int values) {
+        if (comparables.isEmpty()) return;
+        double cost = 0;
+        double passRate = 0;
+        for (Config.StringComparable comparable : comparables) {
+            cost += cost(comparable);
+            passRate += passRate(comparable);
+        }
+        estimates.add(new Estimate(condition, extractionCost + values * cost, 1 - Math.pow(1 - Math.min(passRate, 1), values)));
+    }
+
+    private static void addMaps(List<Estimate> estimates, FilterPredicate.Condition condition, List<Map<Integer, Config.StringComparable>> maps, double extractionCost) {
+        if (maps.isEmpty()) return;
+        double cost = 0;
+        double passRate = 0;
+        for (Map<Integer, Config.StringComparable> map : maps) {
+            double mapPassRate = 1;
+            for (Config.StringComparable comparable : map.values()) {
+                cost += extractionCost + cost(comparable);
+                mapPassRate *= passRate(comparable);
+            }
+            passRate += mapPassRate;
+        }
+        estimates.add(new Estimate(condition, cost, Math.min(passRate, 1)));
+    }
+
+    // Class and number checks are cheap, a value check renders the parameter, but only up to maxLength
+    private static void addParameters(List<Estimate> estimates, List<Map<Integer, Config.ParameterComparable>> maps) {
+        if (maps.isEmpty()) return;
+        double cost = 0;
+        double passRate = 0;
+        for (Map<Integer, Config.ParameterComparable> map : maps) {
+            double mapPassRate = 1;
+            for (Config.ParameterComparable parameter : map.values()) {
+                cost += 1;
+                if (parameter.classIs != null || parameter.instanceOf != null) {
+                    mapPassRate *= 0.2;
+                }
+                cost += parameter.number.size();
+                mapPassRate *= Math.pow(0.5, parameter.number.size());
+                if (!parameter.value.isEmpty()) {
+                    double valuePassRate = 0;
+                    cost += Math.min(30, 5 + parameter.maxLength / 16.0);
+                    for (Config.StringComparable comparable : parameter.value) {
+                        cost += cost(comparable);
+                        valuePassRate += passRate(comparable);
+                    }
+                    mapPassRate *= Math.min(valuePassRate, 1);
+                }
+            }
+            passRate += mapPassRate;
+        }
+        estimates.add(new Estimate(FilterPredicate.Condition.PARAMETERS, cost, Math.min(passRate, 1)));
+    }
+
+    private static double cost(Config.StringComparable comparable) {
+        double cost = switch (comparable.relation) {
+            case MATCH, MATCH_IGNORE_CASE -> 1;
+            case STARTS_WITH, ENDS_WITH, STARTS_WITH_IGNORE_CASE, ENDS_WITH_IGNORE_CASE -> 1;
+            case CONTAINS, CONTAINS_IGNORE_CASE -> 3;
+            case REGEX, FIND -> 20;
+            case null -> 0;
+        };
+        for (Config.StringComparable whitelisted : comparable.whitelist) {
+            cost += cost(whitelisted);
+        }
+        return cost;
+    }
+
+    private static double passRate(Config.StringComparable comparable) {
+        return switch (comparable.relation) {
+            case MATCH, MATCH_IGNORE_CASE -> 0.05;
+            case STARTS_WITH, STARTS_WITH_IGNORE_CASE -> 0.2;
+            case null, default -> 0.3;
+        };
+    }
+}
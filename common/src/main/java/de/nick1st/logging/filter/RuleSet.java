@@ -0,0 +1,227 @@
+package de.nick1st.logging.filter;
+
+import com.google.gson.Gson;
+
+import java.util.*;
+
+/**
+ * An immutable snapshot of everything the filter needs to decide an event: the indexed rules, their decision cache and
+ * the settings read on the hot path. {@link Filter} publishes it through a single volatile field, so a logging thread
+ * either sees the old or the new rule set, never a mix of both.
+ * <p>
+ * Compiling is incremental: every rule is keyed by its planned JSON (after folding, together with its condition order
+ * and backend), and rules whose key didn't change reuse the predicate of the previous snapshot, including its compiled
+ * method handle, literal matcher and adaptive counters. Only new or changed rules are compiled. Reused rules keep the
+ * literal matcher of the reload they were compiled in, once too many matchers are in use the rule set is compiled from
+ * scratch again, so a field is still scanned by few automatons.
+ */
+public class RuleSet {
+    private static final Gson GSON = new Gson();
+    private static final int MAX_LITERAL_MATCHERS = 4;
+
+    public static final RuleSet EMPTY = new RuleSet(new RuleIndex(List.of()), null, new DecisionCache(0), Config.LogLevel.NONE, false, false, Map.of(), Map.of(), List.of(), null, null);
+
+    /**
+     * The rules without targets, they deny an event for every appender.
+     */
+    public final RuleIndex rules;
+    /**
+     * The rules with targets, null if there are none.
+     */
+    public final TargetedRules targeted;
+    public final DecisionCache decisions;
+    public final Config.LogLevel reportLevel;
+    /**
+     * Count hits and misses per rule, so {@link Filter#reorder()} can move the hottest rules to the front.
+     */
+    public final boolean adaptive;
+    /**
+     * Record {@link RuleMetrics} for every evaluation.
+     */
+    public final boolean metrics;
+    /**
+     * The normal rules followed by the overload rules, which {@link Filter} switches to during a logging storm. Null if
+     * overload protection is off.
+     */
+    public final RuleSet overload;
+    /**
+     * When to switch to {@link #overload} and back, null if overload protection is off.
+     */
+    public final Config.Overload overloadSettings;
+    /**
+     * The normal rules as the optimizer planned them, the targeted ones included. Saved by {@link RuleSnapshot}.
+     */
+    public final List<RuleOptimizer.PlannedRule> planned;
+    // Rule key -> predicate, for reuse by the next reload
+    private final Map<String, FilterPredicate> compiled;
+    // Position of each rule in the config, starting at 1
+    private final Map<FilterPredicate, Integer> numbers;
+
+    private RuleSet(RuleIndex rules, TargetedRules targeted, DecisionCache decisions, Config.LogLevel reportLevel, boolean adaptive, boolean metrics,
+                    Map<String, FilterPredicate> compiled, Map<FilterPredicate, Integer> numbers, List<RuleOptimizer.PlannedRule> planned,
+                    RuleSet overload, Config.Overload overloadSettings) {
+        this.rules = rules;
+        this.targeted = targeted;
+        this.decisions = decisions;
+        this.reportLevel = reportLevel;
+        this.adaptive = adaptive;
+        this.metrics = metrics;
+        this.compiled = compiled;
+        this.numbers = numbers;
+        this.planned = planned;
+        this.overload = overload;
+        this.overloadSettings = overloadSettings;
+    }
+
+    /**
+     * The position of the rule in the config, starting at 1. Overload rules are numbered after the normal rules.
+     */
+    public int number(FilterPredicate filter) {
+        return numbers.getOrDefault(filter, 0);
+    }
+
+    /**
+     * Every rule, the targeted ones included.
+     */
+    public List<FilterPredicate> allRules() {
+        if (targeted == null) return rules.getFilters();
+        List<FilterPredicate> filters = new ArrayList<>(rules.getFilters());
+        filters.addAll(targeted.rules.getFilters());
+        return filters;
+    }
+
+    /**
+     * Same rules and decisions in a different order, see {@link Filter#reorder()}.
+     */
+    RuleSet withOrder(List<FilterPredicate> filters) {
+        return new RuleSet(new RuleIndex(filters), targeted, decisions, reportLevel, adaptive, metrics, compiled, numbers, planned, overload, overloadSettings);
+    }
+
+    /**
+     * Compiles the rules of a config, reusing the unchanged rules of the previous snapshot.
+     */
+    public static RuleSet compile(Config config, RuleSet previous) {
+        PatternCache.beginReload();
+        RuleSet ruleSet = compile(config, config.rules, previous, false);
+        if (config.overload.enabled) {
+            List<Config.FilterRule> rules = new ArrayList<>(config.rules);
+            rules.addAll(config.overload.rules);
+            // Compiled against the normal rules, so both share the predicates of the normal rules
+            RuleSet overload = compile(config, rules, ruleSet, true);
+            ruleSet = new RuleSet(ruleSet.rules, ruleSet.targeted, ruleSet.decisions, ruleSet.reportLevel, ruleSet.adaptive, ruleSet.metrics,
+                    ruleSet.compiled, ruleSet.numbers, ruleSet.planned, overload, config.overload);
+        }
+        PatternCache.prune();
+        return ruleSet;
+    }
+
+    private static RuleSet compile(Config config, List<Config.FilterRule> configRules, RuleSet previous, boolean overload) {
+        List<RuleOptimizer.PlannedRule> planned = new ArrayList<>();
+        if (config.optimizeRules) {
+            RuleOptimizer.Plan plan = RuleOptimizer.optimize(configRules);
+            if (Constants.LOG.isDebugEnabled()) {
+                Constants.LOG.debug("{}, {} of {} rules kept:\n  {}", overload ? "Overload rule plan" : "Rule plan", plan.rules().size(),
+                        configRules.size(), String.join("\n  ", plan.report()));
+            }
+            planned.addAll(plan.rules());
+        } else {
+            for (int i = 0; i < configRules.size(); i++) {
+                planned.add(new RuleOptimizer.PlannedRule(i, configRules.get(i), FilterPredicate.DEFAULT_ORDER, 0));
+            }
+        }
+        List<String> keys = new ArrayList<>();
+        for (RuleOptimizer.PlannedRule rule : planned) {
+            keys.add(key(config.ruleBackend, rule.order(), rule.rule()));
+        }
+
+        Map<String, FilterPredicate> reusable = reusableMatchers(previous, keys) < MAX_LITERAL_MATCHERS ? previous.compiled : Map.of();
+        LiteralMatcher literals = new LiteralMatcher();
+        Map<String, FilterPredicate> compiled = new HashMap<>();
+        List<FilterPredicate> filters = new ArrayList<>();
+        Map<FilterPredicate, Integer> numbers = new IdentityHashMap<>();
+        int reused = 0;
+        for (int i = 0; i < planned.size(); i++) {
+            RuleOptimizer.PlannedRule rule = planned.get(i);
+            FilterPredicate filter = compiled.get(keys.get(i));
+            if (filter == null) {
+                filter = reusable.get(keys.get(i));
+                if (filter != null) {
+                    reused++;
+                    retainPatterns(filter.rule);
+                } else {
+                    filter = new FilterPredicate(rule.rule(), literals, config.ruleBackend, rule.order());
+                }
+                compiled.put(keys.get(i), filter);
+            }
+            filters.add(filter);
+            numbers.putIfAbsent(filter, rule.index() + 1);
+        }
+        literals.build();
+        if (reused > 0 && !overload) {
+            Constants.LOG.info("Reused {} unchanged of {} rules", reused, filters.size());
+        }
+        List<FilterPredicate> targeted = filters.stream().filter(filter -> !filter.rule.targets.isEmpty()).toList();
+        filters.removeIf(filter -> !filter.rule.targets.isEmpty());
+        return new RuleSet(new RuleIndex(filters), targeted.isEmpty() ? null : new TargetedRules(targeted),
+                new DecisionCache(config.decisionCacheSize), config.reportLevel,
+                config.adaptiveOrdering, config.metrics, Map.copyOf(compiled), Collections.unmodifiableMap(numbers), List.copyOf(planned), null, null);
+    }
+
+    /**
+     * Compiles rules the optimizer planned already, see {@link RuleSnapshot}. They are compiled with the backend of the
+     * config, so their keys match and applying the config reuses them, and without any of the settings that need the
+     * running game.
+     */
+    static RuleSet compilePlanned(List<RuleOptimizer.PlannedRule> planned, Config.RuleBackend backend, int decisionCacheSize) {
+        PatternCache.beginReload();
+        LiteralMatcher literals = new LiteralMatcher();
+        Map<String, FilterPredicate> compiled = new HashMap<>();
+        List<FilterPredicate> filters = new ArrayList<>();
+        Map<FilterPredicate, Integer> numbers = new IdentityHashMap<>();
+        for (RuleOptimizer.PlannedRule rule : planned) {
+            FilterPredicate filter = compiled.computeIfAbsent(key(backend, rule.order(), rule.rule()),
+                    key -> new FilterPredicate(rule.rule(), literals, backend, rule.order()));
+            filters.add(filter);
+            numbers.putIfAbsent(filter, rule.index() + 1);
+        }
+        literals.build();
+        PatternCache.prune();
+        return new RuleSet(new RuleIndex(filters), null, new DecisionCache(decisionCacheSize), Config.LogLevel.NONE, false, false,
+                Map.copyOf(compiled), Collections.unmodifiableMap(numbers), List.copyOf(planned), null, null);
+    }
+
+    private static String key(Config.RuleBackend backend, List<FilterPredicate.Condition> order, Config.FilterRule rule) {
+        return backend + " " + order + " " + GSON.toJson(rule);
+    }
+
+    // The number of literal matchers the new rule set would use besides its own one
+    private static int reusableMatchers(RuleSet previous, List<String> keys) {
+        Set<LiteralMatcher> matchers = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (String key : keys) {
+            FilterPredicate filter = previous.compiled.get(key);
+            if (filter != null) matchers.add(filter.getLiterals());
+        }
+        return matchers.size();
+    }
+
+    // Reused rules don't request their patterns again, keep them in the cache anyway
+    private static void retainPatterns(Config.FilterRule rule) {
+        for (List<Config.StringComparable> comparables : List.of(rule.loggerName, rule.threadName, rule.throwableClass, rule.causeClass, rule.rootCauseMessage,
+                rule.stackFrame, rule.message, rule.formatMessage)) {
+            retainPatterns(comparables);
+        }
+        for (List<Map<Integer, Config.StringComparable>> maps : List.of(rule.parameterClasses, rule.parameterValues)) {
+            maps.forEach(map -> retainPatterns(map.values()));
+        }
+        rule.parameters.forEach(map -> map.values().forEach(parameter -> retainPatterns(parameter.value)));
+    }
+
+    private static void retainPatterns(Collection<Config.StringComparable> comparables) {
+        for (Config.StringComparable comparable : comparables) {
+            if (comparable.relation == Config.StringComparable.Relation.REGEX || comparable.relation == Config.StringComparable.Relation.FIND) {
+                PatternCache.get(comparable.value);
+            }
+            retainPatterns(comparable.whitelist);
+        }
+    }
+}
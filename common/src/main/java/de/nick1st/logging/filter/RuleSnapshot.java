@@ -0,0 +1,83 @@
+package de.nick1st.logging.filter;
+
+import com.google.gson.Gson;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+
+/**
+ * The planned rules of the last config that was applied, saved next to it as log_filter.snapshot.
+ * On Fabric {@link CommonClass#earlyInit()} installs the filter from it as soon as the loader reads the mixin config of the mod,
+ * long before the mod is initialized, so the startup spam of mod discovery and registry loading is filtered already.
+ * <p>
+ * The rules are stored as {@link RuleOptimizer} left them, together with their condition order and the rule backend,
+ * so loading skips the planning and {@link CommonClass#init()} reuses the compiled rules when it applies the config. Everything that needs the running game is left out: targeted rules (their appenders are looked up later),
+ * overload protection, level pushdown, capture and metrics. A snapshot is only used while log_filter.json is unchanged
+ * since it was written, so the filter never runs with rules that were removed from the config.
+ */
+public class RuleSnapshot {
+    private static final int VERSION = 2;
+    private static final Gson GSON = new Gson();
+
+    private int version;
+    // Hash of the config the snapshot was made from
+    private String source;
+    private Config.RuleBackend backend;
+    private int decisionCacheSize;
+    private List<Config.FilterRule> rules = new ArrayList<>();
+    private List<List<FilterPredicate.Condition>> orders = new ArrayList<>();
+    private List<Integer> indices = new ArrayList<>();
+
+    /**
+     * Saves the rules of an applied config as they were planned when it was compiled, replacing the previous snapshot at
+     * once.
+     */
+    public static void write(Path file, String json, Config config, RuleSet ruleSet) throws IOException {
+        RuleSnapshot snapshot = new RuleSnapshot();
+        snapshot.version = VERSION;
+        snapshot.source = hash(json);
+        snapshot.backend = config.ruleBackend;
+        snapshot.decisionCacheSize = config.decisionCacheSize;
+        for (RuleOptimizer.PlannedRule rule : ruleSet.planned) {
+            if (!rule.rule().targets.isEmpty()) continue;
+            snapshot.rules.add(rule.rule());
+            snapshot.orders.add(rule.order());
+            snapshot.indices.add(rule.index());
+        }
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.writeString(temporary, GSON.toJson(snapshot));
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Compiles the snapshot, null if there is none or the config changed since it was written.
+     *
+     * @param json the current content of the config
+     */
+    public static RuleSet read(Path file, String json) throws IOException {
+        if (!Files.exists(file)) return null;
+        RuleSnapshot snapshot = GSON.fromJson(Files.readString(file), RuleSnapshot.class);
+        if (snapshot == null || snapshot.version != VERSION || snapshot.backend == null || !hash(json).equals(snapshot.source)) return null;
+        List<RuleOptimizer.PlannedRule> planned = new ArrayList<>();
+        for (int i = 0; i < snapshot.rules.size(); i++) {
+            planned.add(new RuleOptimizer.PlannedRule(snapshot.indices.get(i), snapshot.rules.get(i), snapshot.orders.get(i), 0));
+        }
+        return RuleSet.compilePlanned(planned, snapshot.backend, snapshot.decisionCacheSize);
+    }
+
+    private static String hash(String json) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(json.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package de.nick1st.logging.filter;
+
+import java.util.*;
+
+/**
+ * The rules with {@link Config.FilterRule#targets}. They don't deny an event as a whole, only for the named appenders:
+ * an {@link AppenderFilter} on each of them asks {@link Filter#deniesTarget} for its bit of the decision.
+ * <p>
+ * Every appender name gets a bit once per JVM, so masks stay valid across reloads and the appender filters installed
+ * for an earlier rule set keep working. At most {@link #MAX_TARGETS} appenders can be targeted.
+ */
+public class TargetedRules {
+    public static final int MAX_TARGETS = Long.SIZE;
+    private static final Map<String, Integer> BITS = new HashMap<>();
+
+    public final RuleIndex rules;
+    /**
+     * The appenders any of the rules targets, as a mask of their bits.
+     */
+    public final long all;
+    // Rule -> the appenders it denies events for
+    private final Map<FilterPredicate, Long> masks = new IdentityHashMap<>();
+
+    TargetedRules(List<FilterPredicate> filters) {
+        List<FilterPredicate> targeted = new ArrayList<>();
+        long all = 0;
+        for (FilterPredicate filter : filters) {
+            long mask = mask(filter.rule.targets);
+            if (mask == 0) continue;
+            targeted.add(filter);
+            masks.put(filter, mask);
+            all |= mask;
+        }
+        this.rules = new RuleIndex(targeted);
+        this.all = all;
+    }
+
+    public long mask(FilterPredicate filter) {
+        return masks.getOrDefault(filter, 0L);
+    }
+
+    /**
+     * The names of all targeted appenders.
+     */
+    public Set<String> appenders() {
+        Set<String> appenders = new TreeSet<>();
+        masks.keySet().forEach(filter -> appenders.addAll(filter.rule.targets));
+        return appenders;
+    }
+
+    /**
+     * The bit of an appender name, -1 if too many appenders were targeted already.
+     */
+    public static synchronized int bit(String appender) {
+        Integer bit = BITS.get(appender);
+        if (bit == null) {
+            if (BITS.size() == MAX_TARGETS) {
+                Constants.LOG.warn("More than {} appenders are targeted, rules won't apply to {}", MAX_TARGETS, appender);
+                return -1;
+            }
+            bit = BITS.size();
+            BITS.put(appender, bit);
+        }
+        return bit;
+    }
+
+    private static long mask(List<String> targets) {
+        long mask = 0;
+        for (String target : targets) {
+            int bit = bit(target);
+            if (bit >= 0) mask |= 1L << bit;
+        }
+        return mask;
+    }
+}
@@ -0,0 +1,239 @@
+package de.nick1st.logging.filter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The state of a rule whose {@link Config.FilterRule#action} only denies some of the events it matches.
+ * <p>
+ * {@link #deny(FilterEvent)} runs on the filter path and neither logs nor allocates. What was suppressed is reported
+ * by {@link #report(int)}, which a background thread calls about once a second: a line is logged once a burst is over,
+ * or every {@link #REPORT_INTERVAL_NANOS} while it lasts.
+ */
+public abstract class Throttle {
+    private static final long REPORT_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(60);
+
+    protected final long windowNanos;
+    protected final int limit;
+    protected final int sampleRate;
+
+    private Throttle(Config.FilterRule rule) {
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, rule.windowMillis));
+        this.limit = Math.max(1, rule.limit);
+        this.sampleRate = Math.max(0, rule.sampleRate);
+    }
+
+    /**
+     * @return the throttle for the rule's action, null for rules that deny every event they match
+     */
+    public static Throttle of(Config.FilterRule rule) {
+        return switch (rule.action) {
+            case DENY -> null;
+            case DEDUPLICATE -> new Deduplicate(rule);
+            case RATE_LIMIT -> new RateLimit(rule);
+            case null -> null;
+        };
+    }
+
+    /**
+     * Called for an event the rule matched, whether it is denied. Events over the limit are kept one in sampleRate.
+     */
+    public boolean deny(FilterEvent event) {
+        return deny(event, System.nanoTime());
+    }
+
+    abstract boolean deny(FilterEvent event, long now);
+
+    /**
+     * @return the report lines of bursts that ended or lasted long enough since the last call
+     */
+    public List<String> report(int ruleNumber) {
+        return report(ruleNumber, System.nanoTime());
+    }
+
+    abstract List<String> report(int ruleNumber, long now);
+
+    protected static String count(long count) {
+        return String.format(Locale.ROOT, "%,d", count);
+    }
+
+    /**
+     * Allows the first {@code limit} events per window for every message fingerprint (logger name and format string).
+     * <p>
+     * The fingerprints live in a fixed size table split into stripes, each stripe is an open addressed array guarded
+     * by its own lock, so threads logging different messages rarely meet. Only references to the event's own strings
+     * are stored, nothing is allocated per event. If all slots a fingerprint can go to are taken, the one with the
+     * oldest window is evicted, its suppressed count is reported in bulk.
+     */
+    static class Deduplicate extends Throttle {
+        static final int STRIPES = 16;
+        static final int SLOTS_PER_STRIPE = 256;
+        static final int PROBES = 8;
+
+        private final Stripe[] stripes = new Stripe[STRIPES];
+        private final LongAdder evicted = new LongAdder();
+
+        private Deduplicate(Config.FilterRule rule) {
+            super(rule);
+            for (int i = 0; i < STRIPES; i++) {
+                stripes[i] = new Stripe();
+            }
+        }
+
+        @Override
+        boolean deny(FilterEvent event, long now) {
+            String loggerName = event.getLoggerName() != null ? event.getLoggerName() : "";
+            String format = event.getFormat() != null ? event.getFormat() : "";
+            int hash = hash(loggerName, format);
+            Stripe stripe = stripes[hash & (STRIPES - 1)];
+            synchronized (stripe) {
+                int slot = stripe.find(hash, loggerName, format, now, this);
+                if (now - stripe.windowStarts[slot] >= windowNanos) {
+                    stripe.windowStarts[slot] = now;
+                    stripe.counts[slot] = 0;
+                }
+                int count = ++stripe.counts[slot];
+                if (count <= limit || sampleRate > 0 && (count - limit) % sampleRate == 0) {
+                    return false;
+                }
+                stripe.suppressed[slot]++;
+                return true;
+            }
+        }
+
+        @Override
+        List<String> report(int ruleNumber, long now) {
+            List<String> lines = new ArrayList<>();
+            for (Stripe stripe : stripes) {
+                synchronized (stripe) {
+                    for (int slot = 0; slot < SLOTS_PER_STRIPE; slot++) {
+                        long suppressed = stripe.suppressed[slot];
+                        if (suppressed == 0) continue;
+                        boolean ended = now - stripe.windowStarts[slot] >= windowNanos;
+                        if (ended || now - stripe.reported[slot] >= REPORT_INTERVAL_NANOS) {
+                            lines.add("Rule #" + ruleNumber + " suppressed " + count(suppressed) + " duplicates of \""
+                                    + stripe.formats[slot] + "\" from " + stripe.loggerNames[slot]);
+                            stripe.suppressed[slot] = 0;
+                            stripe.reported[slot] = now;
+                        }
+                    }
+                }
+            }
+            long evicted = this.evicted.sumThenReset();
+            if (evicted > 0) {
+                lines.add("Rule #" + ruleNumber + " suppressed " + count(evicted) + " duplicates of messages that were no longer tracked");
+            }
+            return lines;
+        }
+
+        /**
+         * The fingerprint hash, its low bits pick the stripe and the next ones the first slot to probe in it.
+         */
+        static int hash(String loggerName, String format) {
+            int hash = loggerName.hashCode() * 31 + format.hashCode();
+            return hash ^ hash >>> 16;
+        }
+
+        private static class Stripe {
+            private final int[] hashes = new int[SLOTS_PER_STRIPE];
+            private final String[] loggerNames = new String[SLOTS_PER_STRIPE];
+            private final String[] formats = new String[SLOTS_PER_STRIPE];
+            private final long[] windowStarts = new long[SLOTS_PER_STRIPE];
+            private final long[] reported = new long[SLOTS_PER_STRIPE];
+            private final int[] counts = new int[SLOTS_PER_STRIPE];
+            private final long[] suppressed = new long[SLOTS_PER_STRIPE];
+
+            /**
+             * Returns the slot of the fingerprint, taking a free or the least recently started slot if it is new.
+             */
+            private int find(int hash, String loggerName, String format, long now, Deduplicate owner) {
+                // The low bits picked the stripe already
+                int start = (hash >>> 4) & (SLOTS_PER_STRIPE - 1);
+                int victim = -1;
+                for (int probe = 0; probe < PROBES; probe++) {
+                    int slot = (start + probe) & (SLOTS_PER_STRIPE - 1);
+                    if (formats[slot] == null) {
+                        return claim(slot, hash, loggerName, format, now);
+                    }
+                    if (hashes[slot] == hash && formats[slot].equals(format) && loggerNames[slot].equals(loggerName)) {
+                        return slot;
+                    }
+                    if (victim < 0 || windowStarts[slot] - windowStarts[victim] < 0) {
+                        victim = slot;
+                    }
+                }
+                owner.evicted.add(suppressed[victim]);
+                return claim(victim, hash, loggerName, format, now);
+            }
+
+            private int claim(int slot, int hash, String loggerName, String format, long now) {
+                hashes[slot] = hash;
+                loggerNames[slot] = loggerName;
+                formats[slot] = format;
+                // Expired right away, so the caller starts a new window
+                windowStarts[slot] = now - Long.MAX_VALUE / 2;
+                reported[slot] = now;
+                counts[slot] = 0;
+                suppressed[slot] = 0;
+                return slot;
+            }
+        }
+    }
+
+    /**
+     * A token bucket per rule holding {@code limit} tokens, refilled with {@code limit} tokens per window. Implemented
+     * as the equivalent generic cell rate algorithm, so the whole state is a single timestamp updated by CAS.
+     * Sampling is random here: events over the limit are kept with a chance of one in sampleRate.
+     */
+    static class RateLimit extends Throttle {
+        private final long interval;
+        private final long tolerance;
+        // The theoretical arrival time of the next event
+        private final AtomicLong arrival = new AtomicLong(System.nanoTime());
+        private final LongAdder suppressed = new LongAdder();
+        private volatile long lastSuppressed;
+        private long reported = System.nanoTime();
+
+        private RateLimit(Config.FilterRule rule) {
+            super(rule);
+            interval = Math.max(1, windowNanos / limit);
+            tolerance = windowNanos - interval;
+        }
+
+        @Override
+        boolean deny(FilterEvent event, long now) {
+            while (true) {
+                long arrival = this.arrival.get();
+                long next = arrival - now < 0 ? now : arrival;
+                if (next - now > tolerance) {
+                    if (sampleRate > 0 && ThreadLocalRandom.current().nextInt(sampleRate) == 0) {
+                        return false;
+                    }
+                    suppressed.increment();
+                    lastSuppressed = now;
+                    return true;
+                }
+                if (this.arrival.compareAndSet(arrival, next + interval)) {
+                    return false;
+                }
+            }
+        }
+
+        @Override
+        synchronized List<String> report(int ruleNumber, long now) {
+            if (now - lastSuppressed < windowNanos && now - reported < REPORT_INTERVAL_NANOS) {
+                return List.of();
+            }
+            long suppressed = this.suppressed.sumThenReset();
+            if (suppressed == 0) return List.of();
+            reported = now;
+            return List.of("Rule #" + ruleNumber + " suppressed " + count(suppressed) + " events over its rate limit of "
+                    + limit + " per " + TimeUnit.NANOSECONDS.toMillis(windowNanos) + " ms");
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package de.nick1st.logging.filter;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * The parts of a throwable the rules can match on: its class, the classes of its cause chain, the message of the root
+ * cause and its top stack frames.
+ * <p>
+ * Mods often log the same exception instance over and over, and walking it is not free ({@link Throwable#getStackTrace()}
+ * copies the whole trace), so {@link #of(Throwable)} memoizes the result per throwable identity. The cache is direct
+ * mapped on the identity hash code and holds the throwables weakly, so it is bounded and never keeps an exception
+ * alive. Threads race on the slots without locking, that only ever costs a recomputation.
+ */
+public class ThrowableInfo {
+    /**
+     * The most stack frames a rule can look at, see {@link Config.FilterRule#stackFrameDepth}.
+     */
+    public static final int MAX_FRAMES = 32;
+    private static final int MAX_CAUSES = 32;
+    private static final int CACHE_SIZE = 256;
+    private static final ThrowableInfo[] CACHE = new ThrowableInfo[CACHE_SIZE];
+
+    public final String className;
+    /**
+     * The class names of the throwable and its causes, outermost first.
+     */
+    public final String[] causeClasses;
+    /**
+     * The message of the innermost cause, null if it has none.
+     */
+    public final String rootCauseMessage;
+    // Weak, so the cache doesn't keep the throwable alive, null for throwables read from a file
+    private final WeakReference<Throwable> throwable;
+    private volatile String[] frames;
+
+    private ThrowableInfo(Throwable throwable) {
+        List<Throwable> chain = new ArrayList<>();
+        for (Throwable cause = throwable; cause != null && chain.size() < MAX_CAUSES && !containsIdentical(chain, cause); cause = cause.getCause()) {
+            chain.add(cause);
+        }
+        this.causeClasses = new String[chain.size()];
+        for (int i = 0; i < causeClasses.length; i++) {
+            causeClasses[i] = chain.get(i).getClass().getName();
+        }
+        this.className = causeClasses[0];
+        this.rootCauseMessage = chain.get(chain.size() - 1).getMessage();
+        this.throwable = new WeakReference<>(throwable);
+    }
+
+    /**
+     * A throwable read from a file, see {@link Replay}.
+     */
+    public ThrowableInfo(String className, String[] causeClasses, String rootCauseMessage, String[] frames) {
+        this.className = className;
+        this.causeClasses = causeClasses;
+        this.rootCauseMessage = rootCauseMessage;
+        this.frames = frames;
+        this.throwable = null;
+    }
+
+    /**
+     * The memoized info of a throwable, null for null.
+     */
+    public static ThrowableInfo of(Throwable throwable) {
+        if (throwable == null) return null;
+        int slot = System.identityHashCode(throwable) & (CACHE_SIZE - 1);
+        ThrowableInfo info = CACHE[slot];
+        if (info == null || info.throwable.get() != throwable) {
+            info = new ThrowableInfo(throwable);
+            CACHE[slot] = info;
+        }
+        return info;
+    }
+
+    /**
+     * The top {@link #MAX_FRAMES} stack frames of the throwable itself as "class.method", walked on first use.
+     */
+    public String[] frames() {
+        String[] frames = this.frames;
+        if (frames == null) {
+            // Only cleared once nobody logs the throwable anymore
+            Throwable throwable = this.throwable.get();
+            StackTraceElement[] trace = throwable != null ? throwable.getStackTrace() : new StackTraceElement[0];
+            frames = new String[Math.min(trace.length, MAX_FRAMES)];
+            for (int i = 0; i < frames.length; i++) {
+                frames[i] = trace[i].getClassName() + "." + trace[i].getMethodName();
+            }
+            this.frames = frames;
+        }
+        return frames;
+    }
+
+    public boolean anyCauseClass(Predicate<String> predicate) {
+        for (String causeClass : causeClasses) {
+            if (predicate.test(causeClass)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Whether any of the top frames matches, see {@link Config.FilterRule#stackFrameDepth}.
+     */
+    public boolean anyFrame(Predicate<String> predicate, int depth) {
+        String[] frames = frames();
+        for (int i = 0, count = Math.min(depth, frames.length); i < count; i++) {
+            if (predicate.test(frames[i])) return true;
+        }
+        return false;
+    }
+
+    private static boolean containsIdentical(List<Throwable> chain, Throwable throwable) {
+        for (Throwable element : chain) {
+            if (element == throwable) return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,63 @@
+package de.nick1st.logging.filter.mixin;
+
+import de.nick1st.logging.filter.CommonClass;
+import de.nick1st.logging.filter.Constants;
+import de.nick1st.logging.filter.platform.services.IPlatformHelper;
+import org.objectweb.asm.tree.ClassNode;
+import org.spongepowered.asm.mixin.extensibility.IMixinConfigPlugin;
+import org.spongepowered.asm.mixin.extensibility.IMixinInfo;
+
+import java.util.List;
+import java.util.ServiceLoader;
+import java.util.Set;
+
+/**
+ * Doesn't change any mixins. Every loader reads the common mixin config while it discovers mods, well before it
+ * initializes them, so this is the earliest point the filter can be installed from our own jar, see
+ * {@link CommonClass#earlyInit()}.
+ * <p>
+ * Only done on Fabric, where mixin plugins and mods share a class loader. Under ModLauncher (Forge, NeoForge) mixin
+ * plugins aren't loaded in the game layer, the CommonClass seen here wouldn't be the one init() runs on later and the
+ * root logger would end up with two filters.
+ */
+public class LogFilterMixinPlugin implements IMixinConfigPlugin {
+    @Override
+    public void onLoad(String mixinPackage) {
+        try {
+            // A class that failed to initialize stays broken, so don't touch CommonClass before the platform is available
+            if (ServiceLoader.load(IPlatformHelper.class).findFirst().filter(platform -> platform.getPlatformName().equals("Fabric")).isEmpty()) {
+                return;
+            }
+            CommonClass.earlyInit();
+        } catch (Throwable t) {
+            Constants.LOG.warn("Couldn't install the log filter early, it is installed once the mod is initialized.", t);
+        }
+    }
+
+    @Override
+    public String getRefMapperConfig() {
+        return null;
+    }
+
+    @Override
+    public boolean shouldApplyMixin(String targetClassName, String mixinClassName) {
+        return true;
+    }
+
+    @Override
+    public void acceptTargets(Set<String> myTargets, Set<String> otherTargets) {
+    }
+
+    @Override
+    public List<String> getMixins() {
+        return null;
+    }
+
+    @Override
+    public void preApply(String targetClassName, ClassNode targetClass, String mixinClassName, IMixinInfo mixinInfo) {
+    }
+
+    @Override
+    public void postApply(String targetClassName, ClassNode targetClass, String mixinClassName, IMixinInfo mixinInfo) {
+    }
+}
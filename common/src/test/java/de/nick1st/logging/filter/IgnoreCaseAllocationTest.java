@@ -0,0 +1,122 @@
+package de.nick1st.logging.filter;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.core.impl.MutableLogEvent;
+import org.apache.logging.log4j.message.ParameterizedMessage;
+import org.apache.logging.log4j.message.ReusableMessageFactory;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * The *_IGNORE_CASE relations compare the event strings in place, so testing them allocates nothing per event, on
+ * immutable events as well as on the reusable events of the garbage-free path. Measured with the allocated bytes of the
+ * current thread after a warmup, for both rule backends.
+ * <p>
+ * The rules check the logger name, the thread name and the format, whose strings the events already hold. The formatted
+ * message is left out, a MutableLogEvent builds a new string for it on every call.
+ */
+public class IgnoreCaseAllocationTest {
+    private static final int WARMUP = 20_000;
+    private static final int EVENTS = 100_000;
+    private static final String LOGGER = "net.minecraft.server.MinecraftServer";
+    private static final String THREAD = "Server thread";
+    private static final String FORMAT = "Saving chunks for level '{}'/{}";
+
+    @Test
+    public void immutableEvent() {
+        LogEvent event = Log4jLogEvent.newBuilder()
+                .setLoggerName(LOGGER)
+                .setLevel(Level.INFO)
+                .setThreadName(THREAD)
+                .setMessage(new ParameterizedMessage(FORMAT, "ServerLevel[world]", "minecraft:overworld"))
+                .build();
+        assertNoAllocation(event);
+    }
+
+    @Test
+    public void reusableEvent() {
+        MutableLogEvent event = new MutableLogEvent();
+        event.setLoggerName(LOGGER);
+        event.setLevel(Level.INFO);
+        event.setThreadName(THREAD);
+        event.setMessage(new ReusableMessageFactory().newMessage(FORMAT, "ServerLevel[world]", "minecraft:overworld"));
+        assertNoAllocation(event);
+    }
+
+    private static void assertNoAllocation(LogEvent event) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled(), "Allocated bytes aren't measured");
+        for (Config.RuleBackend backend : Config.RuleBackend.values()) {
+            LiteralMatcher literals = new LiteralMatcher();
+            // An array, the iterator of a list isn't always scalar replaced and would be counted
+            FilterPredicate[] predicates = rules().stream().map(rule -> new FilterPredicate(rule, literals, backend)).toArray(FilterPredicate[]::new);
+            literals.build();
+            // One hit and two misses for each of the relations
+            assertEquals(4, matches(event, predicates), backend + " matches");
+
+            for (int i = 0; i < WARMUP; i++) {
+                matches(event, predicates);
+            }
+            long before = threads.getCurrentThreadAllocatedBytes();
+            for (int i = 0; i < EVENTS; i++) {
+                matches(event, predicates);
+            }
+            double bytesPerEvent = (double) (threads.getCurrentThreadAllocatedBytes() - before) / EVENTS;
+            assertTrue(bytesPerEvent < 1, () -> backend + " allocates " + bytesPerEvent + " bytes per event");
+        }
+    }
+
+    private static int matches(LogEvent event, FilterPredicate[] predicates) {
+        FilterEvent filterEvent = FilterEvent.acquire().set(event);
+        try {
+            int matches = 0;
+            for (FilterPredicate predicate : predicates) {
+                if (predicate.test(filterEvent)) matches++;
+            }
+            return matches;
+        } finally {
+            filterEvent.release();
+        }
+    }
+
+    private static List<Config.FilterRule> rules() {
+        List<Config.FilterRule> rules = new ArrayList<>();
+        for (String value : new String[]{"SAVING CHUNKS", "saving entities", "LOADING"}) {
+            rules.add(rule(Config.StringComparable.Relation.STARTS_WITH_IGNORE_CASE, value, false));
+        }
+        for (String value : new String[]{"FOR LEVEL '{}'", "for player", "TICKING"}) {
+            rules.add(rule(Config.StringComparable.Relation.CONTAINS_IGNORE_CASE, value, false));
+        }
+        for (String value : new String[]{" THREAD", "worker", "IO #3"}) {
+            rules.add(rule(Config.StringComparable.Relation.ENDS_WITH_IGNORE_CASE, value, true));
+        }
+        for (String value : new String[]{"NET.MINECRAFT.SERVER.MINECRAFTSERVER", "net.minecraft.client", "COM.EXAMPLE"}) {
+            Config.FilterRule rule = new Config.FilterRule();
+            rule.loggerName.add(string(Config.StringComparable.Relation.MATCH_IGNORE_CASE, value));
+            rules.add(rule);
+        }
+        return rules;
+    }
+
+    private static Config.FilterRule rule(Config.StringComparable.Relation relation, String value, boolean threadName) {
+        Config.FilterRule rule = new Config.FilterRule();
+        (threadName ? rule.threadName : rule.formatMessage).add(string(relation, value));
+        return rule;
+    }
+
+    private static Config.StringComparable string(Config.StringComparable.Relation relation, String value) {
+        Config.StringComparable comparable = new Config.StringComparable();
+        comparable.relation = relation;
+        comparable.value = value;
+        return comparable;
+    }
+}
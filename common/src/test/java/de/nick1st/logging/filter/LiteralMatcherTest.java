@@ -0,0 +1,120 @@
+package de.nick1st.logging.filter;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.message.SimpleMessage;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * The literal checks of a field answer like the String methods they replace, whether the field has few literals (checked
+ * directly) or enough for the Aho-Corasick automaton.
+ */
+public class LiteralMatcherTest {
+    private static final Config.StringComparable.Relation[] RELATIONS = {
+            Config.StringComparable.Relation.STARTS_WITH, Config.StringComparable.Relation.CONTAINS,
+            Config.StringComparable.Relation.ENDS_WITH, Config.StringComparable.Relation.STARTS_WITH_IGNORE_CASE,
+            Config.StringComparable.Relation.CONTAINS_IGNORE_CASE, Config.StringComparable.Relation.ENDS_WITH_IGNORE_CASE
+    };
+    // Overlapping literals, one being the suffix or prefix of another, in both cases, and the empty literal
+    private static final String[] VALUES = {"he", "she", "hers", "his", "", "HE", "sHe", "Hers", "e", "s h", "\u00df", "\u0130s"};
+    private static final String[] TEXTS = {"ushers", "she sells", "HERSHEY", "", "he", "h", "SHE", "his hers", "Stra\u00dfe",
+            "\u0130stanbul", "is", "sssshe", "s h e", "ShE HeRs"};
+
+    @Test
+    public void automaton() {
+        List<Check> checks = new ArrayList<>();
+        for (Config.StringComparable.Relation relation : RELATIONS) {
+            for (String value : VALUES) {
+                checks.add(new Check(relation, value));
+            }
+        }
+        assertMatches(checks, TEXTS);
+        assertMatches(checks, random(new Random(42), 2000));
+    }
+
+    @Test
+    public void exactAndIgnoreCaseOnOneField() {
+        // Both automatons of the field, the ids of the exact and the case-insensitive literals are interleaved
+        List<Check> checks = List.of(new Check(Config.StringComparable.Relation.CONTAINS, "he"),
+                new Check(Config.StringComparable.Relation.CONTAINS_IGNORE_CASE, "HE"),
+                new Check(Config.StringComparable.Relation.ENDS_WITH, "rs"),
+                new Check(Config.StringComparable.Relation.STARTS_WITH_IGNORE_CASE, "sH"),
+                new Check(Config.StringComparable.Relation.CONTAINS, "HE"),
+                new Check(Config.StringComparable.Relation.ENDS_WITH_IGNORE_CASE, "RS"));
+        assertMatches(checks, TEXTS);
+        assertMatches(checks, random(new Random(7), 2000));
+    }
+
+    @Test
+    public void fewLiterals() {
+        // Below the automaton threshold
+        List<Check> checks = List.of(new Check(Config.StringComparable.Relation.CONTAINS, "he"),
+                new Check(Config.StringComparable.Relation.ENDS_WITH_IGNORE_CASE, "RS"),
+                new Check(Config.StringComparable.Relation.STARTS_WITH, ""));
+        assertMatches(checks, TEXTS);
+    }
+
+    private static void assertMatches(List<Check> checks, String[] texts) {
+        LiteralMatcher matcher = new LiteralMatcher();
+        int[] ids = new int[checks.size()];
+        for (int i = 0; i < checks.size(); i++) {
+            ids[i] = matcher.add(FilterEvent.FORMAT, checks.get(i).relation(), checks.get(i).value());
+        }
+        matcher.build();
+        for (String text : texts) {
+            FilterEvent event = FilterEvent.acquire().set(Log4jLogEvent.newBuilder()
+                    .setLoggerName("test")
+                    .setLevel(Level.INFO)
+                    .setMessage(new SimpleMessage(text))
+                    .build());
+            try {
+                for (int i = 0; i < checks.size(); i++) {
+                    Check check = checks.get(i);
+                    assertEquals(check.expected(text), matcher.test(event, FilterEvent.FORMAT, ids[i]),
+                            check.relation() + " \"" + check.value() + "\" on \"" + text + "\"");
+                }
+            } finally {
+                event.release();
+            }
+        }
+    }
+
+    private static String[] random(Random random, int count) {
+        String alphabet = "hersHERS i\u0130\u00df";
+        String[] texts = new String[count];
+        for (int i = 0; i < count; i++) {
+            char[] chars = new char[random.nextInt(12)];
+            for (int j = 0; j < chars.length; j++) {
+                chars[j] = alphabet.charAt(random.nextInt(alphabet.length()));
+            }
+            texts[i] = new String(chars);
+        }
+        return texts;
+    }
+
+    private record Check(Config.StringComparable.Relation relation, String value) {
+        private boolean expected(String text) {
+            int length = value.length();
+            return switch (relation) {
+                case STARTS_WITH -> text.startsWith(value);
+                case CONTAINS -> text.contains(value);
+                case ENDS_WITH -> text.endsWith(value);
+                case STARTS_WITH_IGNORE_CASE -> text.regionMatches(true, 0, value, 0, length);
+                case ENDS_WITH_IGNORE_CASE -> text.regionMatches(true, text.length() - length, value, 0, length);
+                case CONTAINS_IGNORE_CASE -> {
+                    for (int i = 0; i <= text.length() - length; i++) {
+                        if (text.regionMatches(true, i, value, 0, length)) yield true;
+                    }
+                    yield false;
+                }
+                case null, default -> throw new IllegalStateException("Unexpected value: " + relation);
+            };
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package de.nick1st.logging.filter;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.message.ParameterizedMessage;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Rules on a field the event doesn't have, like the throwable class of an event without throwable or a parameter past
+ * the last one, neither throw nor match, see {@link FilterEvent#nullable(int)}.
+ */
+public class MissingFieldTest {
+    private static final LogEvent EVENT = Log4jLogEvent.newBuilder()
+            .setLoggerName("net.minecraft.server.MinecraftServer")
+            .setLevel(Level.WARN)
+            .setMessage(new ParameterizedMessage("Can't keep up! Running {}ms behind", 2000))
+            .build();
+
+    @Test
+    public void throwableClass() {
+        Config.FilterRule rule = new Config.FilterRule();
+        rule.throwableClass.add(string(Config.StringComparable.Relation.STARTS_WITH, "java."));
+        assertNoMatch(rule);
+
+        // Whitelisted values don't turn the missing field into a match either
+        Config.FilterRule negated = new Config.FilterRule();
+        Config.StringComparable any = string(Config.StringComparable.Relation.FIND, ".*");
+        any.whitelist.add(string(Config.StringComparable.Relation.CONTAINS, "Exception"));
+        negated.throwableClass.add(any);
+        assertNoMatch(negated);
+    }
+
+    @Test
+    public void parameterClassPastTheLast() {
+        Config.FilterRule rule = new Config.FilterRule();
+        rule.parameterClasses.add(Map.of(3, string(Config.StringComparable.Relation.MATCH, "java.lang.Integer")));
+        assertNoMatch(rule);
+
+        // The parameter the event has still matches
+        Config.FilterRule present = new Config.FilterRule();
+        present.parameterClasses.add(Map.of(0, string(Config.StringComparable.Relation.MATCH, "java.lang.Integer")));
+        for (Config.RuleBackend backend : Config.RuleBackend.values()) {
+            assertTrue(test(present, backend), backend.name());
+        }
+    }
+
+    @Test
+    public void missingFieldsAreNull() {
+        FilterEvent event = FilterEvent.acquire().set(EVENT);
+        try {
+            assertNull(event.get(FilterEvent.THROWABLE_CLASS));
+            assertNull(event.get(FilterEvent.parameterClass(3)));
+            assertNull(event.get(FilterEvent.parameterValue(1)));
+        } finally {
+            event.release();
+        }
+    }
+
+    private static void assertNoMatch(Config.FilterRule rule) {
+        for (Config.RuleBackend backend : Config.RuleBackend.values()) {
+            assertFalse(test(rule, backend), backend.name());
+        }
+    }
+
+    private static boolean test(Config.FilterRule rule, Config.RuleBackend backend) {
+        LiteralMatcher literals = new LiteralMatcher();
+        FilterPredicate predicate = new FilterPredicate(rule, literals, backend);
+        literals.build();
+        FilterEvent event = FilterEvent.acquire().set(EVENT);
+        try {
+            return predicate.test(event);
+        } finally {
+            event.release();
+        }
+    }
+
+    private static Config.StringComparable string(Config.StringComparable.Relation relation, String value) {
+        Config.StringComparable comparable = new Config.StringComparable();
+        comparable.relation = relation;
+        comparable.value = value;
+        return comparable;
+    }
+}
@@ -0,0 +1,151 @@
+package de.nick1st.logging.filter;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Which rules the optimizer folds and drops as covered by an earlier rule, see {@link RuleOptimizer}.
+ */
+public class RuleOptimizerTest {
+    @Test
+    public void foldsAlwaysTrueConditions() {
+        Config.FilterRule rule = rule("net.minecraft");
+        rule.loggerName.add(string(Config.StringComparable.Relation.STARTS_WITH, "net.minecraft"));
+        rule.formatMessage.add(string(Config.StringComparable.Relation.CONTAINS, ""));
+        rule.level.add(level(Config.Comparable.Relation.GREATER_THAN_OR_EQUAL, Config.LogLevel.ALL));
+        // Fails without a throwable, so it isn't always true
+        rule.throwableClass.add(string(Config.StringComparable.Relation.CONTAINS, ""));
+
+        Config.FilterRule folded = plan(rule).get(0).rule();
+        assertEquals(1, folded.loggerName.size());
+        assertTrue(folded.formatMessage.isEmpty());
+        assertTrue(folded.level.isEmpty());
+        assertEquals(1, folded.throwableClass.size());
+        // The config itself is left untouched
+        assertEquals(2, rule.loggerName.size());
+        assertEquals(1, rule.level.size());
+    }
+
+    @Test
+    public void dropsRulesNoLevelCanMatch() {
+        Config.FilterRule rule = rule("net.minecraft");
+        rule.level.add(level(Config.Comparable.Relation.LESS_THAN, Config.LogLevel.WARN));
+        rule.level.add(level(Config.Comparable.Relation.GREATER_THAN, Config.LogLevel.ERROR));
+        assertEquals(List.of(), indices(plan(rule)));
+    }
+
+    @Test
+    public void dropsCoveredRules() {
+        Config.FilterRule by = rule("net.minecraft", "com.example");
+        by.level.add(level(Config.Comparable.Relation.LESS_THAN, Config.LogLevel.ERROR));
+        Config.FilterRule covered = rule("com.example");
+        covered.level.add(level(Config.Comparable.Relation.EQUAL, Config.LogLevel.INFO));
+        covered.formatMessage.add(string(Config.StringComparable.Relation.CONTAINS, "Saving"));
+        // An earlier rule covers a later one, not the other way round
+        assertEquals(List.of(0), indices(plan(by, covered)));
+        assertEquals(List.of(0, 1), indices(plan(covered, by)));
+    }
+
+    @Test
+    public void keepsRulesMatchingMore() {
+        Config.FilterRule by = rule("com.example");
+        by.level.add(level(Config.Comparable.Relation.LESS_THAN, Config.LogLevel.WARN));
+        // Another logger or a level the first rule allows
+        Config.FilterRule otherLogger = rule("com.example", "net.minecraft");
+        otherLogger.level.add(level(Config.Comparable.Relation.LESS_THAN, Config.LogLevel.WARN));
+        Config.FilterRule anyLevel = rule("com.example");
+        assertEquals(List.of(0, 1, 2), indices(plan(by, otherLogger, anyLevel)));
+
+        // Without a condition the first rule has
+        Config.FilterRule withFormat = rule("com.example");
+        withFormat.formatMessage.add(string(Config.StringComparable.Relation.CONTAINS, "Saving"));
+        Config.FilterRule withoutFormat = rule("com.example");
+        withoutFormat.level.add(level(Config.Comparable.Relation.EQUAL, Config.LogLevel.DEBUG));
+        assertEquals(List.of(0, 1), indices(plan(withFormat, withoutFormat)));
+    }
+
+    @Test
+    public void keepsRulesAfterThrottles() {
+        Config.FilterRule throttle = rule("com.example");
+        throttle.action = Config.Action.RATE_LIMIT;
+        // The throttle lets events through to the later rule
+        assertEquals(List.of(0, 1), indices(plan(throttle, rule("com.example"))));
+    }
+
+    @Test
+    public void targetedRulesCoverTheirTargetsOnly() {
+        Config.FilterRule console = rule("com.example");
+        console.targets.add("Console");
+        Config.FilterRule consoleAndFile = rule("com.example");
+        consoleAndFile.targets.addAll(List.of("Console", "File"));
+        Config.FilterRule consoleOnly = rule("com.example");
+        consoleOnly.targets.add("Console");
+        assertEquals(List.of(0, 1), indices(plan(console, consoleAndFile)));
+        assertEquals(List.of(0, 1), indices(plan(console, rule("com.example"))));
+        assertEquals(List.of(0), indices(plan(consoleAndFile, consoleOnly)));
+        // An untargeted rule denies for every appender
+        assertEquals(List.of(0), indices(plan(rule("com.example"), consoleOnly)));
+    }
+
+    @Test
+    public void parameterMapsCoverIdenticalEntriesOnly() {
+        Config.FilterRule by = rule("com.example");
+        by.parameterClasses.add(Map.of(0, string(Config.StringComparable.Relation.MATCH, "java.lang.String")));
+        Config.FilterRule same = rule("com.example");
+        same.parameterClasses.add(Map.of(0, string(Config.StringComparable.Relation.MATCH, "java.lang.String")));
+        Config.FilterRule otherIndex = rule("com.example");
+        otherIndex.parameterClasses.add(Map.of(1, string(Config.StringComparable.Relation.MATCH, "java.lang.String")));
+        assertEquals(List.of(0, 2), indices(plan(by, same, otherIndex)));
+    }
+
+    @Test
+    public void keepsCoveredRulesLoggingTheirFiring() {
+        Config.FilterRule by = rule("com.example");
+        Config.FilterRule logging = rule("com.example");
+        logging.logRuleFiring = true;
+        List<RuleOptimizer.PlannedRule> planned = plan(by, logging);
+        assertEquals(List.of(0, 1), indices(planned));
+        // The covering rule doesn't start logging its firing
+        assertFalse(planned.get(0).rule().logRuleFiring);
+        assertTrue(planned.get(1).rule().logRuleFiring);
+    }
+
+    private static List<RuleOptimizer.PlannedRule> plan(Config.FilterRule... rules) {
+        return RuleOptimizer.optimize(List.of(rules)).rules();
+    }
+
+    private static List<Integer> indices(List<RuleOptimizer.PlannedRule> planned) {
+        List<Integer> indices = new ArrayList<>();
+        planned.forEach(rule -> indices.add(rule.index()));
+        return indices;
+    }
+
+    private static Config.FilterRule rule(String... loggerNames) {
+        Config.FilterRule rule = new Config.FilterRule();
+        for (String loggerName : loggerNames) {
+            rule.loggerName.add(string(Config.StringComparable.Relation.STARTS_WITH, loggerName));
+        }
+        return rule;
+    }
+
+    private static Config.Comparable<Config.LogLevel> level(Config.Comparable.Relation relation, Config.LogLevel value) {
+        Config.Comparable<Config.LogLevel> comparable = new Config.Comparable<>();
+        comparable.relation = relation;
+        comparable.value = value;
+        return comparable;
+    }
+
+    private static Config.StringComparable string(Config.StringComparable.Relation relation, String value) {
+        Config.StringComparable comparable = new Config.StringComparable();
+        comparable.relation = relation;
+        comparable.value = value;
+        return comparable;
+    }
+}
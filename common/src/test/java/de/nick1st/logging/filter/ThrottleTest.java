@@ -0,0 +1,170 @@
+package de.nick1st.logging.filter;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.message.SimpleMessage;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The throttles at the edges of their windows and rates. The time is passed in, so nothing here depends on the clock.
+ */
+public class ThrottleTest {
+    private static final String LOGGER = "net.minecraft.server.level.ChunkMap";
+    private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    public void rateLimitBurst() {
+        // 3 per 300 ms: one token every 100 ms, a burst of up to 3
+        Throttle throttle = Throttle.of(rule(Config.Action.RATE_LIMIT, 3, 300, 0));
+        long start = System.nanoTime();
+        for (int i = 0; i < 3; i++) {
+            assertFalse(deny(throttle, "Saving", start), "burst " + i);
+        }
+        assertTrue(deny(throttle, "Saving", start));
+        // The next token is due after one interval, not a nanosecond earlier
+        assertTrue(deny(throttle, "Saving", start + 100 * MILLIS - 1));
+        assertFalse(deny(throttle, "Saving", start + 100 * MILLIS));
+        assertTrue(deny(throttle, "Saving", start + 100 * MILLIS));
+
+        // An idle rule doesn't save up more than a burst
+        long later = start + 10_000 * MILLIS;
+        for (int i = 0; i < 3; i++) {
+            assertFalse(deny(throttle, "Saving", later), "burst " + i);
+        }
+        assertTrue(deny(throttle, "Saving", later));
+    }
+
+    @Test
+    public void rateLimitSteadyRate() {
+        Throttle throttle = Throttle.of(rule(Config.Action.RATE_LIMIT, 10, 1000, 0));
+        long start = System.nanoTime();
+        int allowed = 0;
+        // 100 events per second for 10 seconds
+        for (int i = 0; i < 1000; i++) {
+            if (!deny(throttle, "Saving", start + i * 10 * MILLIS)) allowed++;
+        }
+        // The first burst and then one per 100 ms
+        assertEquals(10 + 99, allowed);
+    }
+
+    @Test
+    public void rateLimitSampling() {
+        // Keeping one in one keeps every event
+        Throttle throttle = Throttle.of(rule(Config.Action.RATE_LIMIT, 1, 1000, 1));
+        long start = System.nanoTime();
+        for (int i = 0; i < 10; i++) {
+            assertFalse(deny(throttle, "Saving", start));
+        }
+    }
+
+    @Test
+    public void rateLimitReport() {
+        Throttle throttle = Throttle.of(rule(Config.Action.RATE_LIMIT, 1, 1000, 0));
+        long start = System.nanoTime();
+        deny(throttle, "Saving", start);
+        assertTrue(deny(throttle, "Saving", start));
+        assertTrue(deny(throttle, "Saving", start + 500 * MILLIS));
+        // Not while the burst lasts
+        assertEquals(List.of(), throttle.report(1, start + 1499 * MILLIS));
+        assertEquals(List.of("Rule #1 suppressed 2 events over its rate limit of 1 per 1000 ms"), throttle.report(1, start + 1500 * MILLIS));
+        assertEquals(List.of(), throttle.report(1, start + 3000 * MILLIS));
+    }
+
+    @Test
+    public void deduplicateWindow() {
+        Throttle throttle = Throttle.of(rule(Config.Action.DEDUPLICATE, 2, 1000, 0));
+        long start = System.nanoTime();
+        assertFalse(deny(throttle, "Saving", start));
+        assertFalse(deny(throttle, "Saving", start));
+        assertTrue(deny(throttle, "Saving", start));
+        // Other messages count on their own
+        assertFalse(deny(throttle, "Loading", start));
+        // The window ends exactly windowMillis after its first event
+        assertTrue(deny(throttle, "Saving", start + 1000 * MILLIS - 1));
+        assertFalse(deny(throttle, "Saving", start + 1000 * MILLIS));
+        assertFalse(deny(throttle, "Saving", start + 1000 * MILLIS));
+        assertTrue(deny(throttle, "Saving", start + 1000 * MILLIS));
+
+        assertEquals(List.of(), throttle.report(1, start + 1999 * MILLIS));
+        assertEquals(List.of("Rule #1 suppressed 3 duplicates of \"Saving\" from " + LOGGER), throttle.report(1, start + 2000 * MILLIS));
+    }
+
+    @Test
+    public void deduplicateSampling() {
+        Throttle throttle = Throttle.of(rule(Config.Action.DEDUPLICATE, 2, 1000, 3));
+        long start = System.nanoTime();
+        StringBuilder kept = new StringBuilder();
+        for (int i = 0; i < 11; i++) {
+            kept.append(deny(throttle, "Saving", start) ? '-' : 'x');
+        }
+        // Every third event over the limit is kept
+        assertEquals("xx--x--x--x", kept.toString());
+    }
+
+    @Test
+    public void deduplicateEvictsOldestWindow() {
+        Throttle throttle = Throttle.of(rule(Config.Action.DEDUPLICATE, 1, 1000, 0));
+        List<String> formats = collidingFormats(Throttle.Deduplicate.PROBES + 1);
+        long start = System.nanoTime();
+        // Fill all slots the formats can go to, the fourth one suppresses an event
+        for (int i = 0; i < Throttle.Deduplicate.PROBES; i++) {
+            assertFalse(deny(throttle, formats.get(i), start + i * MILLIS));
+        }
+        assertTrue(deny(throttle, formats.get(3), start + 3 * MILLIS));
+        // Restart the windows of the first three, the fourth has the oldest window now
+        long restart = start + 2000 * MILLIS;
+        for (int i = 0; i < 3; i++) {
+            assertFalse(deny(throttle, formats.get(i), restart));
+        }
+        assertFalse(deny(throttle, formats.get(Throttle.Deduplicate.PROBES), restart));
+
+        assertEquals(List.of("Rule #1 suppressed 1 duplicates of messages that were no longer tracked"), throttle.report(1, restart));
+        for (int i = 0; i < 3; i++) {
+            assertTrue(deny(throttle, formats.get(i), restart), formats.get(i));
+        }
+    }
+
+    /**
+     * Formats whose fingerprints all probe the same slots of the same stripe.
+     */
+    private static List<String> collidingFormats(int count) {
+        int mask = Throttle.Deduplicate.STRIPES * Throttle.Deduplicate.SLOTS_PER_STRIPE - 1;
+        int target = Throttle.Deduplicate.hash(LOGGER, "message 0") & mask;
+        List<String> formats = new ArrayList<>();
+        for (int i = 0; formats.size() < count; i++) {
+            String format = "message " + i;
+            if ((Throttle.Deduplicate.hash(LOGGER, format) & mask) == target) formats.add(format);
+        }
+        return formats;
+    }
+
+    private static boolean deny(Throttle throttle, String format, long now) {
+        FilterEvent event = FilterEvent.acquire().set(Log4jLogEvent.newBuilder()
+                .setLoggerName(LOGGER)
+                .setLevel(Level.INFO)
+                .setMessage(new SimpleMessage(format))
+                .build());
+        try {
+            return throttle.deny(event, now);
+        } finally {
+            event.release();
+        }
+    }
+
+    private static Config.FilterRule rule(Config.Action action, int limit, long windowMillis, int sampleRate) {
+        Config.FilterRule rule = new Config.FilterRule();
+        rule.action = action;
+        rule.limit = limit;
+        rule.windowMillis = windowMillis;
+        rule.sampleRate = sampleRate;
+        return rule;
+    }
+}